@@ -0,0 +1,194 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Load test for TaskServer: java ApiLoadTest [url|-] [clients] [seconds]
+ *
+ * Without a url (or with "-") it starts a server of its own on a free port over a temporary
+ * data directory. Every client sends one request at a time in a closed loop with a mix of
+ * week listings, creates, completes, deletes and progress reads, and reports requests per
+ * second and latency percentiles once a warm-up period is over.
+ */
+public class ApiLoadTest {
+    private static final int WARMUP_SECONDS = 5;
+    private static final int PRELOAD = 2000;
+    private static final int DAYS = 60;
+    private static final LocalDate BASE = LocalDate.of(2030, 1, 1);
+
+    private HttpClient client;
+    private String url;
+
+    private ApiLoadTest(String url) {
+        this.url = url;
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).connectTimeout(Duration.ofSeconds(5)).build();
+    }
+
+    // What one client measured after the warm-up
+    private static class Result {
+        long[] latencies = new long[1 << 16];
+        int count;
+        TreeMap<Integer, Integer> statuses = new TreeMap<>();
+        int failures;
+        String firstError;
+
+        void record(long nanos, int status) {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+            statuses.merge(status, 1, Integer::sum);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = (args.length > 0) ? args[0] : "-";
+        int clients = (args.length > 1) ? Integer.parseInt(args[1]) : 32;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 30;
+
+        TaskServer server = null;
+        File dir = null;
+        if (url.equals("-")) {
+            dir = TempDir.create("api-load");
+            server = new TaskServer(dir.getPath());
+            url = "http://127.0.0.1:" + server.start(0);
+        }
+        try {
+            new ApiLoadTest(url).run(clients, seconds);
+        }
+        finally
+        {
+            if (server != null)
+                server.stop();
+            if (dir != null)
+                TempDir.delete(dir);
+        }
+    }
+
+    private void run(int clients, int seconds) throws Exception {
+        System.out.println("Preloading " + PRELOAD + " tasks into " + url);
+        for (int i=0;i<PRELOAD;i++)
+            create(new ArrayDeque<>());
+
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        long start = System.nanoTime();
+        long measureFrom = start + WARMUP_SECONDS * 1_000_000_000L;
+        long end = measureFrom + seconds * 1_000_000_000L;
+        ArrayList<Future<Result>> futures = new ArrayList<>();
+        for (int i=0;i<clients;i++)
+            futures.add(pool.submit(() -> client(measureFrom, end)));
+
+        ArrayList<Result> results = new ArrayList<>();
+        for (Future<Result> f : futures)
+            results.add(f.get());
+        pool.shutdown();
+        report(results, clients, seconds);
+    }
+
+    private Result client(long measureFrom, long end) {
+        Result result = new Result();
+        ArrayDeque<String> mine = new ArrayDeque<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (true) {
+            long t0 = System.nanoTime();
+            if (t0 >= end)
+                return result;
+            int status;
+            try {
+                int op = random.nextInt(100);
+                if (op < 50) {
+                    LocalDate from = BASE.plusDays(random.nextInt(DAYS));
+                    status = send(HttpRequest.newBuilder(URI.create(url + "/tasks?from=" + from + "&to=" + from.plusDays(6))).GET());
+                }
+                else if (op < 60)
+                    status = send(HttpRequest.newBuilder(URI.create(url + "/progress")).GET());
+                else if (op < 80 || mine.isEmpty())
+                    status = create(mine);
+                else if (op < 90)
+                    status = send(HttpRequest.newBuilder(URI.create(url + "/tasks/" + mine.poll() + "/complete")).POST(HttpRequest.BodyPublishers.noBody()));
+                else
+                    status = send(HttpRequest.newBuilder(URI.create(url + "/tasks/" + mine.poll())).DELETE());
+            }
+            catch (IOException e)
+            {
+                if (result.firstError == null)
+                    result.firstError = e.toString();
+                status = -1;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return result;
+            }
+            long t1 = System.nanoTime();
+            if (t0 >= measureFrom) {
+                result.record(t1 - t0, status);
+                if (status < 200 || status >= 300)
+                    result.failures++;
+            }
+        }
+    }
+
+    // Creates a task and remembers its "<date>/<id>" path
+    private int create(ArrayDeque<String> mine) throws IOException, InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LocalDate due = BASE.plusDays(random.nextInt(DAYS));
+        String body = "{\"name\":\"Load " + random.nextInt(1_000_000) + "\",\"description\":\"generated\",\"dueDate\":\"" + due + "\",\"priority\":\"MEDIUM\"}";
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url + "/tasks"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() == 201) {
+            Object id = Json.parseObject(response.body()).get("id");
+            mine.add(due + "/" + id);
+        }
+        return response.statusCode();
+    }
+
+    private int send(HttpRequest.Builder request) throws IOException, InterruptedException {
+        return client.send(request.build(), HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static void report(ArrayList<Result> results, int clients, int seconds) {
+        int total = 0;
+        int failures = 0;
+        TreeMap<Integer, Integer> statuses = new TreeMap<>();
+        for (Result r : results) {
+            if (r.firstError != null && failures == 0)
+                System.out.println("First I/O error: " + r.firstError);
+            total += r.count;
+            failures += r.failures;
+            r.statuses.forEach((s, n) -> statuses.merge(s, n, Integer::sum));
+        }
+        long[] all = new long[total];
+        int at = 0;
+        for (Result r : results) {
+            System.arraycopy(r.latencies, 0, all, at, r.count);
+            at += r.count;
+        }
+        Arrays.sort(all);
+
+        System.out.println(clients + " clients, " + seconds + " s after " + WARMUP_SECONDS + " s of warm-up");
+        System.out.printf("Requests: %d (%.0f/s), failed: %d, by status: %s%n", total, (double) total / seconds, failures, statuses);
+        if (total == 0)
+            return;
+        System.out.printf("Latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                percentile(all, 0.50), percentile(all, 0.90), percentile(all, 0.99), percentile(all, 0.999), all[total - 1] / 1e6);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+}
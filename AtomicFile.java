@@ -0,0 +1,70 @@
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Replaces a file without ever leaving it half written: the new content goes to a temp file
+ * in the same directory, which is synced and then renamed over the target. A crash at any
+ * point leaves either the old file or the new one.
+ *
+ *   AtomicFile f = new AtomicFile(name);
+ *   FileOutputStream out = f.startWrite();
+ *   ... write and flush any wrapping streams ...
+ *   f.finishWrite();      // or f.failWrite() on error
+ */
+public class AtomicFile {
+    private Path target;
+    private Path temp;
+    private FileOutputStream out;
+
+    public AtomicFile(String file) {
+        this.target = Paths.get(file).toAbsolutePath();
+        this.temp = target.resolveSibling(target.getFileName() + ".tmp");
+    }
+
+    public FileOutputStream startWrite() throws IOException {
+        out = new FileOutputStream(temp.toFile());
+        return out;
+    }
+
+    public void finishWrite() throws IOException {
+        out.flush();
+        out.getFD().sync();
+        out.close();
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory();
+    }
+
+    public void failWrite() {
+        try {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+        temp.toFile().delete();
+    }
+
+    // Make the rename itself durable
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(target.getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+        catch (IOException e)
+        {
+            // not every platform can open a directory; the rename has still happened
+        }
+    }
+}
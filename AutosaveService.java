@@ -0,0 +1,110 @@
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Persists changed state on a background thread.
+ *
+ * Sources are marked dirty from the owner thread (the FX thread in the application). The first
+ * mark schedules a flush after the delay and later marks join it, so a burst of edits costs
+ * one write. The flush hops back to the owner thread to take the snapshots, which only copy
+ * references, and the writes run on the autosave thread. A source is not snapshotted again
+ * while its previous write is still running; it stays dirty and goes out with the next flush.
+ *
+ * All bookkeeping happens on the owner thread, so it needs no locking.
+ */
+public class AutosaveService {
+    private Executor owner;
+    private long delayMillis;
+    private ScheduledExecutorService scheduler;
+    private LinkedHashSet<Saveable> dirty = new LinkedHashSet<>();
+    private HashSet<Saveable> writing = new HashSet<>();
+    private ScheduledFuture<?> pending;
+    private boolean closed;
+
+    public AutosaveService(Executor owner, long delayMillis) {
+        this.owner = owner;
+        this.delayMillis = delayMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "autosave");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void markDirty(Saveable source) {
+        if (closed)
+            return;
+        dirty.add(source);
+        if (pending == null)
+            pending = scheduler.schedule(() -> owner.execute(this::flush), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        pending = null;
+        if (closed)
+            return;
+        for (Saveable source : new LinkedHashSet<>(dirty)) {
+            if (writing.contains(source))
+                continue;
+            dirty.remove(source);
+            Saveable.Write write = source.snapshot();
+            if (write == null)
+                continue;
+            writing.add(source);
+            scheduler.execute(() -> {
+                boolean ok = run(write);
+                owner.execute(() -> finished(source, ok));
+            });
+        }
+    }
+
+    private void finished(Saveable source, boolean ok) {
+        writing.remove(source);
+        if (!ok || dirty.contains(source))
+            markDirty(source);
+    }
+
+    private static boolean run(Saveable.Write write) {
+        try {
+            write.write();
+            return true;
+        }
+        catch (Exception e)
+        {
+            System.out.println("Error: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /*
+     * Stop the service from the owner thread: wait for running writes, then write whatever is
+     * still dirty on the calling thread. Blocks, so it is meant for shutdown only.
+     */
+    public void close() {
+        closed = true;
+        if (pending != null)
+            pending.cancel(false);
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        // a source whose last write failed is retried here too
+        dirty.addAll(writing);
+        for (Saveable source : dirty) {
+            Saveable.Write write = source.snapshot();
+            if (write != null)
+                run(write);
+        }
+        dirty.clear();
+        writing.clear();
+    }
+}
@@ -0,0 +1,436 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/*
+ * Streaming import and export of tasks as CSV rows or JSON Lines, for moving a backlog in or
+ * out while the application is closed.
+ *
+ *   java BulkTransfer import <file> [data directory]
+ *   java BulkTransfer export <file> [data directory]
+ *   java BulkTransfer check
+ *
+ * The format follows the extension: .jsonl and .ndjson are JSON Lines, anything else is the CSV
+ * row format of tasks.csv. An import reads one line at a time, commits batches of BATCH tasks
+ * through TaskMap.addAll and saves every SAVE_EVERY tasks, after which the days it changed are
+ * records again that the map's cache can drop. Apart from a bit per task id, memory therefore
+ * stays bounded however large the file. Each save rewrites the months changed since the last
+ * one, so a file in date order, as exports are, costs time linear in its size, while one in
+ * random order rewrites every month it touches at each save. Tag names are resolved once each
+ * against the data directory's tags.csv, and names it does not have are dropped from the task
+ * and listed in the report. Rows that do not parse are written with their line number and the
+ * reason to <file>.rejected. A row that repeats a task already filed, or one earlier in the
+ * file, is skipped; a row whose id belongs to another task, e.g. one exported from another data
+ * directory, is given a new id and counted as renumbered. An export walks the map one day at a
+ * time.
+ */
+public class BulkTransfer {
+    private static final int BATCH = 10000;
+    // Tasks imported between saves, which bounds the changed days held decoded
+    private static final int SAVE_EVERY = 200000;
+    private static final int PROGRESS_EVERY = 1000000;
+    private static final int SAMPLES = 5;
+    // Caps the tag name cache and the list of unknown names
+    private static final int MAX_UNKNOWN = 1000;
+
+    private TaskMap taskMap;
+    private TagManager tagManager;
+    private TaskCodec codec;
+    private HashMap<String, Tag> tags = new HashMap<>();
+    private TreeSet<String> unknownTags = new TreeSet<>();
+    // Ids taken so far. Task hands them out from a counter, so they are dense and fit a bit set
+    private BitSet used = new BitSet();
+    private HashSet<Long> usedLarge = new HashSet<>();
+    // Tasks of the batch not committed yet, by id, and the rows held back because their id was taken
+    private HashMap<Long, Task> pending = new HashMap<>();
+    private ArrayList<Task> taken = new ArrayList<>();
+
+    private long lines;
+    private long imported;
+    private long duplicates;
+    private long renumbered;
+    private long unsaved;
+    private long rejected;
+    private long nanos;
+    private long bytes;
+    private String rejectFile;
+
+    public BulkTransfer(TaskMap taskMap) {
+        this.taskMap = taskMap;
+        this.tagManager = TagManager.getInstance();
+        this.codec = new TaskCodec(tagManager);
+        codec.reportUnknownTags(unknownTags);
+    }
+
+    private static boolean isJsonLines(String file) {
+        String name = file.toLowerCase();
+        return name.endsWith(".jsonl") || name.endsWith(".ndjson");
+    }
+
+    public void importFile(String file) throws IOException {
+        boolean json = isJsonLines(file);
+        long start = System.nanoTime();
+        bytes = new File(file).length();
+        rejectFile = file + ".rejected";
+        new File(rejectFile).delete();
+
+        taskMap.forEachId(id -> use(id));
+        ArrayList<Task> batch = new ArrayList<>(BATCH);
+        BufferedWriter rejects = null;
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8), 1 << 20);
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines++;
+                if (line.isBlank())
+                    continue;
+
+                Task t = null;
+                String reason;
+                try {
+                    t = json ? fromJson(line) : codec.decode(line, true);
+                    reason = "expected 6 to 9 fields";
+                }
+                catch (IllegalArgumentException | DateTimeParseException e)
+                {
+                    reason = e.getMessage();
+                }
+
+                if (t == null) {
+                    if (rejects == null)
+                        rejects = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejectFile), StandardCharsets.UTF_8));
+                    rejects.write(lines + ";" + reason + ";" + line);
+                    rejects.newLine();
+                    if (rejected++ < SAMPLES)
+                        System.out.println("Rejected line " + lines + ": " + reason);
+                    continue;
+                }
+
+                if (use(t.getId())) {
+                    pending.put(t.getId(), t);
+                    batch.add(t);
+                }
+                else
+                    taken.add(t);
+                if (batch.size() + taken.size() >= BATCH)
+                    commit(batch);
+                if (lines % PROGRESS_EVERY == 0)
+                    System.out.println(lines + " lines, " + rate(lines, System.nanoTime() - start) + " lines/s");
+            }
+            commit(batch);
+        }
+        finally
+        {
+            br.close();
+            if (rejects != null)
+                rejects.close();
+        }
+
+        if (unsaved > 0)
+            taskMap.saveTasks();
+        nanos = System.nanoTime() - start;
+    }
+
+    private void commit(ArrayList<Task> batch) {
+        resolveTaken(batch);
+        int added = taskMap.addAll(batch);
+        imported += added;
+        // A save writes the changed months and hands their days back to the map's read cache
+        if ((unsaved += added) >= SAVE_EVERY) {
+            taskMap.saveTasks();
+            unsaved = 0;
+        }
+        duplicates += batch.size() - added;
+        batch.clear();
+        pending.clear();
+        taken.clear();
+        // A file full of distinct unknown names should not fill the heap with them
+        if (unknownTags.size() >= MAX_UNKNOWN)
+            codec.reportUnknownTags(null);
+    }
+
+    // Returns false when the id was already taken
+    private boolean use(long id) {
+        if (id > Integer.MAX_VALUE)
+            return usedLarge.add(id);
+        boolean taken = used.get((int) id);
+        used.set((int) id);
+        return !taken;
+    }
+
+    // Rows whose id was taken are skipped when they repeat the task filed or pending under that
+    // id and date, and join the batch under a new id otherwise. Each of their dates is read once
+    private void resolveTaken(ArrayList<Task> batch) {
+        HashMap<LocalDate, HashMap<Long, Task>> byDate = new HashMap<>();
+        for (Task t : taken)
+            byDate.computeIfAbsent(t.getDueDate(), d -> new HashMap<>()).put(t.getId(), null);
+        for (Map.Entry<LocalDate, HashMap<Long, Task>> e : byDate.entrySet()) {
+            Collection<Task> tasks = taskMap.getTasks(e.getKey());
+            if (tasks == null)
+                continue;
+            for (Task t : tasks)
+                if (e.getValue().containsKey(t.getId()))
+                    e.getValue().put(t.getId(), t);
+        }
+
+        for (Task t : taken) {
+            Task same = pending.containsKey(t.getId()) ? pending.get(t.getId()) : byDate.get(t.getDueDate()).get(t.getId());
+            if (same != null && same.getDueDate().equals(t.getDueDate()) && same.toString().equals(t.toString())) {
+                duplicates++;
+                continue;
+            }
+            Task copy = t.withNewId();
+            use(copy.getId());
+            batch.add(copy);
+            renumbered++;
+        }
+    }
+
+    private Task fromJson(String line) {
+        LinkedHashMap<String, Object> o = Json.parseObject(line);
+        String name = text(o, "name");
+        String due = text(o, "dueDate");
+        if (name == null || name.isEmpty() || due == null)
+            throw new IllegalArgumentException("name and dueDate are required");
+
+        String priority = text(o, "priority");
+        String added = text(o, "addedDate");
+        String time = text(o, "dueTime");
+        String rule = text(o, "recurrence");
+        Object id = o.get("id");
+        // 0 stands for a missing id, as in the CSV rows
+        if (id != null && (!(id instanceof Long) || (Long) id < 0))
+            throw new IllegalArgumentException("id must be a positive whole number");
+
+        Task t = new Task((id == null) ? 0 : (Long) id, name, text(o, "description"), LocalDate.parse(due),
+                (priority == null) ? null : Task.Priority.valueOf(priority), tagBits(o.get("tags")),
+                (added == null) ? LocalDate.now() : LocalDate.parse(added));
+        if (time != null)
+            t.setDueTime(LocalTime.parse(time).truncatedTo(ChronoUnit.MINUTES));
+        if (rule != null)
+            t.setRecurrence(Recurrence.parse(rule));
+        t.assignIdIfMissing();
+        return t;
+    }
+
+    private static String text(LinkedHashMap<String, Object> o, String key) {
+        Object value = o.get(key);
+        if (value != null && !(value instanceof String))
+            throw new IllegalArgumentException(key + " must be a string");
+        return (String) value;
+    }
+
+    // Each distinct name goes to TagManager once; unknown names are cached as null
+    private long[] tagBits(Object value) {
+        if (value == null)
+            return null;
+        if (!(value instanceof ArrayList))
+            throw new IllegalArgumentException("tags must be an array of tag names");
+        long[] bits = null;
+        for (Object o : (ArrayList<?>) value) {
+            if (!(o instanceof String))
+                throw new IllegalArgumentException("tags must be an array of tag names");
+            String name = (String) o;
+            if (!tags.containsKey(name) && tags.size() < MAX_UNKNOWN)
+                tags.put(name, tagManager.find(name));
+            Tag tag = tags.containsKey(name) ? tags.get(name) : tagManager.find(name);
+            if (tag == null) {
+                if (unknownTags.size() < MAX_UNKNOWN)
+                    unknownTags.add(name);
+                continue;
+            }
+            int w = tag.getId() >>> 6;
+            if (bits == null || w >= bits.length) {
+                long[] grown = new long[w + 1];
+                if (bits != null)
+                    System.arraycopy(bits, 0, grown, 0, bits.length);
+                bits = grown;
+            }
+            bits[w] |= 1L << tag.getId();
+        }
+        return bits;
+    }
+
+    // Writes every task in date order and returns how many there were
+    public long exportFile(String file) throws IOException {
+        boolean json = isJsonLines(file);
+        long start = System.nanoTime();
+        long count = 0;
+        StringBuilder sb = new StringBuilder();
+
+        AtomicFile target = new AtomicFile(file);
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(target.startWrite(), StandardCharsets.UTF_8), 1 << 16);
+        try {
+            for (LocalDate day = taskMap.nextNonEmptyDay(LocalDate.MIN); day != null; day = taskMap.nextNonEmptyDay(day)) {
+                Collection<Task> tasks = taskMap.getTasks(day);
+                if (tasks == null)
+                    continue;
+                for (Task t : tasks) {
+                    if (json) {
+                        sb.setLength(0);
+                        Json.appendTask(sb, t);
+                        out.append(sb);
+                    }
+                    else
+                        codec.encode(t).writeTo(out);
+                    out.newLine();
+                    count++;
+                }
+            }
+            out.flush();
+            target.finishWrite();
+        }
+        catch (IOException e)
+        {
+            target.failWrite();
+            throw e;
+        }
+
+        lines = count;
+        nanos = System.nanoTime() - start;
+        bytes = new File(file).length();
+        return count;
+    }
+
+    public String importReport() {
+        String report = "Imported " + imported + " tasks from " + lines + " lines in " + millis() + " ms ("
+                + rate(lines, nanos) + " lines/s, " + megabytesPerSecond() + " MB/s): "
+                + duplicates + " already present, " + renumbered + " renumbered because their ids were taken, " + rejected + " rejected";
+        if (rejected > 0)
+            report += " (see " + rejectFile + ")";
+        if (!unknownTags.isEmpty())
+            report += ", unknown tags dropped" + ((unknownTags.size() >= MAX_UNKNOWN) ? " (first " + MAX_UNKNOWN + ")" : "") + ": " + unknownTags;
+        return report;
+    }
+
+    public String exportReport() {
+        return "Exported " + lines + " tasks in " + millis() + " ms (" + rate(lines, nanos) + " tasks/s, "
+                + megabytesPerSecond() + " MB/s)";
+    }
+
+    private long millis() {
+        return nanos / 1000000;
+    }
+
+    private static long rate(long count, long nanos) {
+        return (nanos == 0) ? 0 : count * 1000000000L / nanos;
+    }
+
+    private String megabytesPerSecond() {
+        return (nanos == 0) ? "0" : String.format("%.1f", bytes / 1048576.0 / (nanos / 1e9));
+    }
+
+    /*
+     * Imports a few CSV and JSON Lines rows into a temporary directory: new tasks, a repeat of
+     * one, another task under a taken id, rows without an id, and bad rows including negative
+     * ids, with tags from the directory's tags.csv. Checks the counts and that the export holds
+     * each task once under a distinct id.
+     */
+    private static boolean check() throws IOException {
+        File dir = TempDir.create("bulk");
+        try {
+            Files.write(new File(dir, "tags.csv").toPath(), Arrays.asList("Errands;0xff0000ff;0"), StandardCharsets.UTF_8);
+            TagManager.open(dir.getPath());
+            File csv = new File(dir, "in.csv");
+            File jsonl = new File(dir, "in.jsonl");
+            Files.write(csv.toPath(), Arrays.asList(
+                    "First;null;2030-01-01;HIGH;errands,Unknown;2026-01-01;1",
+                    "Second;null;2030-01-02;null;null;2026-01-01;2",
+                    "First;null;2030-01-01;HIGH;errands,Unknown;2026-01-01;1",
+                    "Other;null;2030-01-03;LOW;null;2026-01-01;2",
+                    "No id;null;2030-01-04;null;null;2026-01-01",
+                    "Negative;null;2030-01-05;null;null;2026-01-01;-1",
+                    "Too few fields;2030-01-06"), StandardCharsets.UTF_8);
+            Files.write(jsonl.toPath(), Arrays.asList(
+                    "{\"name\": \"Json\", \"dueDate\": \"2030-01-07\", \"id\": 10}",
+                    "{\"name\": \"Negative\", \"dueDate\": \"2030-01-08\", \"id\": -1}"), StandardCharsets.UTF_8);
+
+            TaskMap taskMap = new TaskMap(dir.getPath(), true);
+            BulkTransfer transfer = new BulkTransfer(taskMap);
+            transfer.importFile(csv.getPath());
+            System.out.println(transfer.importReport());
+            boolean ok = transfer.imported == 4 && transfer.duplicates == 1 && transfer.renumbered == 1 && transfer.rejected == 2
+                    && transfer.unknownTags.equals(new TreeSet<>(Arrays.asList("Unknown")));
+
+            BulkTransfer json = new BulkTransfer(taskMap);
+            json.importFile(jsonl.getPath());
+            System.out.println(json.importReport());
+            ok &= json.imported == 1 && json.renumbered == 0 && json.rejected == 1;
+
+            File out = new File(dir, "out.csv");
+            new BulkTransfer(taskMap).exportFile(out.getPath());
+            HashSet<Long> ids = new HashSet<>();
+            int rows = 0;
+            int tagged = 0;
+            for (String line : Files.readAllLines(out.toPath(), StandardCharsets.UTF_8)) {
+                Task t = Task.fromCSV(line);
+                ids.add(t.getId());
+                rows++;
+                if (t.hasTag(0))
+                    tagged++;
+            }
+            System.out.println("Exported " + rows + " tasks under " + ids.size() + " ids, " + tagged + " tagged");
+            return ok && rows == 5 && ids.size() == 5 && tagged == 1;
+        }
+        finally
+        {
+            TempDir.delete(dir);
+        }
+    }
+
+
+    public static void main(String[] args) {
+        if (args.length == 1 && args[0].equals("check")) {
+            try {
+                if (!check())
+                    System.exit(1);
+                System.out.println("All checks passed");
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length < 2 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("Usage: BulkTransfer import|export <file.csv|file.jsonl> [data directory], or BulkTransfer check");
+            return;
+        }
+        String dataDir = (args.length > 2) ? args[2] : "data";
+        new File(dataDir).mkdirs();
+        // Tag names resolve against the directory's own tags.csv
+        TagManager.open(dataDir);
+
+        BulkTransfer transfer = new BulkTransfer(new TaskMap(dataDir, true));
+        try {
+            if (args[0].equals("import")) {
+                transfer.importFile(args[1]);
+                System.out.println(transfer.importReport());
+            }
+            else {
+                transfer.exportFile(args[1]);
+                System.out.println(transfer.exportReport());
+            }
+            if (Metrics.ENABLED)
+                System.out.print(Metrics.report());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+import java.time.LocalDate;
+
+/*
+ * A count per calendar day. Single days are read in O(1) and any range of days is summed in
+ * O(log n) through a Fenwick tree over the days since the earliest one seen. The arrays grow
+ * in either direction as days outside them are added, and the tree is rebuilt when they do.
+ */
+public class DayCounts {
+    private long base;
+    private int[] counts = new int[0];
+    private int[] tree = new int[1];
+    private long total;
+
+    public void add(LocalDate day, int delta) {
+        int i = index(day.toEpochDay());
+        counts[i] += delta;
+        total += delta;
+        for (int j=i+1; j<tree.length; j += j & -j)
+            tree[j] += delta;
+    }
+
+    public int get(LocalDate day) {
+        long i = day.toEpochDay() - base;
+        return (i < 0 || i >= counts.length) ? 0 : counts[(int) i];
+    }
+
+    // Sum over [from, to], both inclusive
+    public long between(LocalDate from, LocalDate to) {
+        if (counts.length == 0 || to.isBefore(from))
+            return 0;
+        long lo = Math.max(0, from.toEpochDay() - base);
+        long hi = Math.min(counts.length - 1, to.toEpochDay() - base);
+        if (lo > hi)
+            return 0;
+        return prefix((int) hi + 1) - prefix((int) lo);
+    }
+
+    public long total() {
+        return total;
+    }
+
+    // Sum of the first n days
+    private long prefix(int n) {
+        long sum = 0;
+        for (int j=n; j>0; j -= j & -j)
+            sum += tree[j];
+        return sum;
+    }
+
+    // Index of the day, growing the arrays to cover it
+    private int index(long epochDay) {
+        if (counts.length == 0) {
+            base = epochDay;
+            counts = new int[64];
+            tree = new int[65];
+        }
+        long i = epochDay - base;
+        if (i >= 0 && i < counts.length)
+            return (int) i;
+
+        long first = Math.min(base, epochDay);
+        long last = Math.max(base + counts.length - 1, epochDay);
+        int size = counts.length;
+        while (size < last - first + 1)
+            size *= 2;
+        // Leave room on the side that had to grow so repeated growth stays amortized
+        long newBase = (epochDay < base) ? last - size + 1 : first;
+
+        int[] grown = new int[size];
+        System.arraycopy(counts, 0, grown, (int) (base - newBase), counts.length);
+        counts = grown;
+        base = newBase;
+        rebuild();
+        return (int) (epochDay - base);
+    }
+
+    private void rebuild() {
+        tree = new int[counts.length + 1];
+        for (int i=0;i<counts.length;i++) {
+            tree[i + 1] += counts[i];
+            int parent = (i + 1) + ((i + 1) & -(i + 1));
+            if (parent < tree.length)
+                tree[parent] += tree[i + 1];
+        }
+    }
+}
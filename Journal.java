@@ -0,0 +1,185 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+
+public class Journal {
+    private String file;
+    private String rotated;
+    private BufferedWriter writer;
+    private int records;
+
+    public Journal(String file) {
+        this.file = file;
+        this.rotated = file + ".old";
+        this.records = 0;
+    }
+
+    // Append one record and flush it so it survives a crash of the application
+    public synchronized void append(String record) {
+        try {
+            if (writer == null)
+                writer = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8, true));
+            writer.write(record);
+            writer.newLine();
+            writer.flush();
+            records++;
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Append several records with a single flush
+    public synchronized void appendAll(Collection<String> list) {
+        try {
+            if (writer == null)
+                writer = new BufferedWriter(new FileWriter(file, StandardCharsets.UTF_8, true));
+            for (String record : list) {
+                writer.write(record);
+                writer.newLine();
+            }
+            writer.flush();
+            records += list.size();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Append several records and wait until they are on the disk, not only handed to the system.
+    // On failure the file is cut back to where it was, so the records can be appended again
+    public synchronized void appendAndSync(Collection<String> list) throws IOException {
+        close();
+        FileOutputStream out = new FileOutputStream(file, true);
+        long length = out.getChannel().size();
+        try {
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            for (String record : list) {
+                bw.write(record);
+                bw.newLine();
+            }
+            bw.flush();
+            out.getFD().sync();
+        }
+        catch (IOException e)
+        {
+            out.getChannel().truncate(length);
+            throw e;
+        }
+        finally
+        {
+            out.close();
+        }
+        records += list.size();
+    }
+
+    // Read back every record written since the last clear, rotated ones first
+    public synchronized ArrayList<String> readRecords() {
+        ArrayList<String> list = readRotated();
+        read(file, list);
+        records = list.size();
+        return list;
+    }
+
+    // Records moved aside by rotate and not yet dropped
+    public synchronized ArrayList<String> readRotated() {
+        ArrayList<String> list = new ArrayList<>();
+        read(rotated, list);
+        return list;
+    }
+
+    private static void read(String name, ArrayList<String> list) {
+        File f = new File(name);
+        if (!f.exists())
+            return;
+
+        try {
+            BufferedReader br = new BufferedReader(new FileReader(f, StandardCharsets.UTF_8));
+            String line;
+
+            while (true) {
+                line = br.readLine();
+                if (line==null) break;
+                if (!line.isEmpty())
+                    list.add(line);
+            }
+            br.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    public synchronized int size() {
+        return records;
+    }
+
+    public synchronized void close() {
+        try {
+            if (writer != null)
+                writer.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+        writer = null;
+    }
+
+    /*
+     * Move the current records aside before a snapshot is written in the background. New
+     * records go to a fresh file; the rotated ones are dropped once the snapshot is safely on
+     * disk, and are still replayed by readRecords if it never gets there.
+     */
+    public synchronized void rotate() {
+        close();
+        File current = new File(file);
+        File old = new File(rotated);
+        try {
+            if (current.exists() && !old.exists()) {
+                if (!current.renameTo(old))
+                    throw new IOException("Cannot rename " + file);
+            }
+            else if (current.exists()) {
+                // An earlier snapshot failed, so its records are still needed
+                ArrayList<String> pending = new ArrayList<>();
+                read(file, pending);
+                BufferedWriter bw = new BufferedWriter(new FileWriter(old, StandardCharsets.UTF_8, true));
+                for (String record : pending) {
+                    bw.write(record);
+                    bw.newLine();
+                }
+                bw.close();
+                new FileWriter(current, false).close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+        records = 0;
+    }
+
+    // Called once the snapshot covering the rotated records has been written
+    public synchronized void dropRotated() {
+        new File(rotated).delete();
+    }
+
+    // Drop all records, called once a snapshot has been written to the base file
+    public synchronized void clear() {
+        close();
+        try {
+            new FileWriter(file, false).close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+        dropRotated();
+        records = 0;
+    }
+}
@@ -0,0 +1,218 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/*
+ * Just enough JSON for the HTTP API and JSON Lines transfers. parse turns a document into
+ * LinkedHashMap, ArrayList, String, Long, Double, Boolean and null values; quote writes a string
+ * literal and appendTask a whole task. Malformed input throws IllegalArgumentException with the
+ * offset of the problem.
+ */
+public class Json {
+    private String text;
+    private int pos;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    public static Object parse(String text) {
+        Json p = new Json(text);
+        p.skipSpace();
+        Object value = p.value();
+        p.skipSpace();
+        if (p.pos != text.length())
+            throw p.error("trailing characters");
+        return value;
+    }
+
+    // The document must be an object
+    public static LinkedHashMap<String, Object> parseObject(String text) {
+        Object value = parse(text);
+        if (!(value instanceof LinkedHashMap))
+            throw new IllegalArgumentException("expected a JSON object");
+        @SuppressWarnings("unchecked")
+        LinkedHashMap<String, Object> map = (LinkedHashMap<String, Object>) value;
+        return map;
+    }
+
+    public static String quote(String s) {
+        if (s == null)
+            return "null";
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i=0;i<s.length();i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // A task as the HTTP API and JSON Lines exports write it
+    public static void appendTask(StringBuilder sb, Task t) {
+        sb.append("{\"id\":").append(t.getId())
+          .append(",\"name\":").append(quote(t.getName()))
+          .append(",\"description\":").append(quote(t.getDescription()))
+          .append(",\"dueDate\":\"").append(t.getDueDate()).append('"')
+          .append(",\"dueTime\":").append((t.getDueTime() == null) ? "null" : "\"" + t.getDueTime() + "\"")
+          .append(",\"priority\":").append((t.getPriority() == null) ? "null" : "\"" + t.getPriority() + "\"")
+          .append(",\"tags\":[");
+        ArrayList<Tag> tags = t.getTags();
+        for (int i=0; tags!=null && i<tags.size(); i++) {
+            if (i > 0)
+                sb.append(',');
+            sb.append(quote(tags.get(i).getName()));
+        }
+        sb.append("],\"addedDate\":");
+        sb.append((t.getAddedDate() == null) ? "null" : "\"" + t.getAddedDate() + "\"");
+        sb.append(",\"recurrence\":").append((t.getRecurrence() == null) ? "null" : quote(t.getRecurrence().toString()));
+        sb.append('}');
+    }
+
+    private Object value() {
+        if (pos >= text.length())
+            throw error("unexpected end");
+        char c = text.charAt(pos);
+        if (c == '{') return object();
+        if (c == '[') return array();
+        if (c == '"') return string();
+        if (text.startsWith("true", pos)) { pos += 4; return Boolean.TRUE; }
+        if (text.startsWith("false", pos)) { pos += 5; return Boolean.FALSE; }
+        if (text.startsWith("null", pos)) { pos += 4; return null; }
+        return number();
+    }
+
+    private LinkedHashMap<String, Object> object() {
+        LinkedHashMap<String, Object> map = new LinkedHashMap<>();
+        pos++;
+        skipSpace();
+        if (peek() == '}') {
+            pos++;
+            return map;
+        }
+        while (true) {
+            skipSpace();
+            if (peek() != '"')
+                throw error("expected a key");
+            String key = string();
+            skipSpace();
+            expect(':');
+            skipSpace();
+            map.put(key, value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect('}');
+            return map;
+        }
+    }
+
+    private ArrayList<Object> array() {
+        ArrayList<Object> list = new ArrayList<>();
+        pos++;
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            return list;
+        }
+        while (true) {
+            skipSpace();
+            list.add(value());
+            skipSpace();
+            if (peek() == ',') {
+                pos++;
+                continue;
+            }
+            expect(']');
+            return list;
+        }
+    }
+
+    private String string() {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+            if (pos >= text.length())
+                throw error("unterminated string");
+            char c = text.charAt(pos++);
+            if (c == '"')
+                return sb.toString();
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= text.length())
+                throw error("unterminated string");
+            char e = text.charAt(pos++);
+            switch (e) {
+                case '"': case '\\': case '/': sb.append(e); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > text.length())
+                        throw error("bad unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                    }
+                    catch (NumberFormatException ex)
+                    {
+                        throw error("bad unicode escape");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw error("bad escape");
+            }
+        }
+    }
+
+    private Object number() {
+        int start = pos;
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0)
+            pos++;
+        String s = text.substring(start, pos);
+        try {
+            if (s.indexOf('.') < 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0)
+                return Long.parseLong(s);
+            return Double.parseDouble(s);
+        }
+        catch (NumberFormatException e)
+        {
+            throw error("unexpected value");
+        }
+    }
+
+    private char peek() {
+        return (pos < text.length()) ? text.charAt(pos) : 0;
+    }
+
+    private void expect(char c) {
+        if (peek() != c)
+            throw error("expected '" + c + "'");
+        pos++;
+    }
+
+    private void skipSpace() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos)))
+            pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Malformed JSON at " + pos + ": " + message);
+    }
+}
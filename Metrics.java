@@ -0,0 +1,221 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/*
+ * Counters and latency histograms for storage, parsing and rendering, off unless the JVM is
+ * started with -Dtodolist.metrics=true.
+ *
+ * ENABLED is a static final read once at class load, so the JIT folds every
+ * "if (Metrics.ENABLED)" and Metrics.start() away and a disabled build pays nothing on the hot
+ * paths. When enabled, counters are LongAdders, so threads updating the same counter do not
+ * contend, and a histogram is a LongAdder per power of two of nanoseconds: recording is one
+ * increment, and the percentiles it reports are upper bounds within a factor of two.
+ *
+ * Every metric is registered as a JMX MBean named todolist:type=Metrics,name=<name>, for
+ * jconsole or any other JMX client. With -Dtodolist.metrics.log=<seconds> they are also
+ * printed at that interval, counters with their rate since the previous dump.
+ */
+public class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("todolist.metrics");
+    private static final long LOG_INTERVAL = Long.getLong("todolist.metrics.log", 0);
+
+    private static LinkedHashMap<String, Object> metrics = new LinkedHashMap<>();
+
+    public static final Histogram LOAD = histogram("taskmap.load");
+    public static final Counter LOAD_ROWS = counter("taskmap.load.rows");
+    public static final Histogram SAVE = histogram("taskmap.save");
+    public static final Counter SAVE_ROWS = counter("taskmap.save.rows");
+    public static final Counter ADDS = counter("taskmap.adds");
+    public static final Counter REMOVES = counter("taskmap.removes");
+    public static final Counter UPDATES = counter("taskmap.updates");
+    public static final Counter DECODED = counter("taskmap.decoded");
+    public static final Counter EVICTED = counter("taskmap.evicted");
+    public static final Counter PARTITIONS_OPENED = counter("taskmap.partitions.opened");
+    public static final Counter PARTITIONS_WRITTEN = counter("taskmap.partitions.written");
+    public static final Counter PARSE_ERRORS = counter("task.parseErrors");
+    public static final Counter TAG_LOOKUPS = counter("tagmanager.lookups");
+    public static final Histogram THREE_DAYS = histogram("fx.loadTasksForThreeDays");
+    public static final Histogram SHOW_TASK = histogram("fx.showTask");
+
+    static {
+        if (ENABLED && LOG_INTERVAL > 0) {
+            ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "metrics");
+                t.setDaemon(true);
+                return t;
+            });
+            timer.scheduleAtFixedRate(Metrics::dump, LOG_INTERVAL, LOG_INTERVAL, TimeUnit.SECONDS);
+        }
+    }
+
+    // Start of a timed section, or 0 when metrics are off; pass it to Histogram.since
+    public static long start() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    public interface CounterMBean {
+        long getCount();
+    }
+
+    public interface HistogramMBean {
+        long getCount();
+        long getMeanMicros();
+        long getP50Micros();
+        long getP99Micros();
+        long getMaxMicros();
+    }
+
+    public static class Counter implements CounterMBean {
+        private LongAdder count = new LongAdder();
+        private long lastCount;
+        private long lastTime = System.nanoTime();
+
+        public void increment() {
+            if (ENABLED)
+                count.increment();
+        }
+
+        public void add(long n) {
+            if (ENABLED)
+                count.add(n);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        // Per second since the previous call
+        private synchronized double rate() {
+            long now = System.nanoTime();
+            long c = count.sum();
+            double r = (c - lastCount) * 1e9 / Math.max(1, now - lastTime);
+            lastCount = c;
+            lastTime = now;
+            return r;
+        }
+    }
+
+    public static class Histogram implements HistogramMBean {
+        // Bucket i holds durations below 2^i ns
+        private LongAdder[] buckets = new LongAdder[64];
+        private LongAdder total = new LongAdder();
+        private LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i=0;i<buckets.length;i++)
+                buckets[i] = new LongAdder();
+        }
+
+        public void record(long nanos) {
+            if (!ENABLED)
+                return;
+            buckets[Math.min(63, 64 - Long.numberOfLeadingZeros(Math.max(0, nanos)))].increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        // Records the time since a Metrics.start()
+        public void since(long start) {
+            if (ENABLED)
+                record(System.nanoTime() - start);
+        }
+
+        public long getCount() {
+            long n = 0;
+            for (LongAdder b : buckets)
+                n += b.sum();
+            return n;
+        }
+
+        public long getMeanMicros() {
+            long n = getCount();
+            return (n == 0) ? 0 : total.sum() / n / 1000;
+        }
+
+        public long getP50Micros() {
+            return percentile(0.50);
+        }
+
+        public long getP99Micros() {
+            return percentile(0.99);
+        }
+
+        public long getMaxMicros() {
+            return max.get() / 1000;
+        }
+
+        // Upper bound of the bucket holding the given fraction of the samples
+        private long percentile(double p) {
+            long n = getCount();
+            if (n == 0)
+                return 0;
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int i=0;i<buckets.length;i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank)
+                    return Math.min(1L << i, max.get()) / 1000;
+            }
+            return getMaxMicros();
+        }
+    }
+
+    private static Counter counter(String name) {
+        Counter c = new Counter();
+        register(name, c, CounterMBean.class);
+        return c;
+    }
+
+    private static Histogram histogram(String name) {
+        Histogram h = new Histogram();
+        register(name, h, HistogramMBean.class);
+        return h;
+    }
+
+    private static <T> void register(String name, T metric, Class<T> type) {
+        metrics.put(name, metric);
+        if (!ENABLED)
+            return;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(metric, type), new ObjectName("todolist:type=Metrics,name=" + name));
+        }
+        catch (JMException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // One line per metric that has seen any activity
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : metrics.entrySet()) {
+            if (e.getValue() instanceof Counter) {
+                Counter c = (Counter) e.getValue();
+                if (c.getCount() > 0)
+                    sb.append(String.format("metrics: %s %d (%.1f/s)%n", e.getKey(), c.getCount(), c.rate()));
+            }
+            else {
+                Histogram h = (Histogram) e.getValue();
+                if (h.getCount() > 0)
+                    sb.append(String.format("metrics: %s n=%d mean=%dus p50<=%dus p99<=%dus max=%dus%n", e.getKey(),
+                            h.getCount(), h.getMeanMicros(), h.getP50Micros(), h.getP99Micros(), h.getMaxMicros()));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void dump() {
+        System.out.print(report());
+    }
+}
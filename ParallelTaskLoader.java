@@ -0,0 +1,221 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Parses a large task CSV file on a fork-join pool.
+ *
+ * split : cut the file into line-aligned byte ranges
+ * parse : each range is mapped, decoded and parsed into its own list with its own TaskCodec,
+ *         so workers share nothing
+ * merge : the lists are joined in file order, and rows without an id are numbered in that
+ *         order, so the result does not depend on how the work was scheduled
+ */
+public class ParallelTaskLoader {
+    private static final long MIN_CHUNK = 1 << 20;
+    private static final long MAX_CHUNK = 64 << 20;
+
+    private ForkJoinPool pool;
+    private long splitNanos;
+    private long parseNanos;
+    private long mergeNanos;
+    private int rows;
+    private int rejected;
+
+    public ParallelTaskLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelTaskLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ArrayList<Task> load(String file) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        try {
+            long start = System.nanoTime();
+            long[] bounds = split(channel);
+            long split = System.nanoTime();
+
+            ArrayList<Chunk> chunks = pool.invoke(new ParseTask(channel, bounds, 0, bounds.length - 1));
+            long parsed = System.nanoTime();
+
+            int total = 0;
+            for (Chunk c : chunks)
+                total += c.tasks.size();
+            ArrayList<Task> list = new ArrayList<>(total);
+            rejected = 0;
+            for (Chunk c : chunks) {
+                for (Task t : c.tasks) {
+                    t.assignIdIfMissing();
+                    list.add(t);
+                }
+                rejected += c.rejected;
+            }
+            rows = list.size();
+            long merged = System.nanoTime();
+
+            splitNanos = split - start;
+            parseNanos = parsed - split;
+            mergeNanos = merged - parsed;
+            return list;
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    // Chunk boundaries, each moved forward to just after the next newline
+    private long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long target = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK, size / (pool.getParallelism() * 4L)));
+        int count = (int) Math.max(1, (size + target - 1) / target);
+
+        long[] bounds = new long[count + 1];
+        bounds[count] = size;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int i=1;i<count;i++) {
+            long pos = Math.max(bounds[i-1], i * target);
+            bounds[i] = size;
+            while (pos < size) {
+                probe.clear();
+                int n = channel.read(probe, pos);
+                if (n <= 0) break;
+                int j = 0;
+                while (j < n && probe.get(j) != '\n') j++;
+                if (j < n) {
+                    bounds[i] = pos + j + 1;
+                    break;
+                }
+                pos += n;
+            }
+        }
+        return bounds;
+    }
+
+    public long getSplitMillis() { return splitNanos / 1_000_000; }
+    public long getParseMillis() { return parseNanos / 1_000_000; }
+    public long getMergeMillis() { return mergeNanos / 1_000_000; }
+    public int getRows() { return rows; }
+    public int getRejected() { return rejected; }
+
+    public String timings() {
+        return rows + " rows, " + rejected + " rejected: split " + getSplitMillis() + " ms, parse " + getParseMillis()
+                + " ms, merge " + getMergeMillis() + " ms on " + pool.getParallelism() + " threads";
+    }
+
+    private static class Chunk {
+        private ArrayList<Task> tasks = new ArrayList<>();
+        private int rejected;
+    }
+
+    private static class ParseTask extends RecursiveTask<ArrayList<Chunk>> {
+        private static final long serialVersionUID = 1L;
+
+        private FileChannel channel;
+        private long[] bounds;
+        private int lo;
+        private int hi;
+
+        ParseTask(FileChannel channel, long[] bounds, int lo, int hi) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected ArrayList<Chunk> compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                ParseTask left = new ParseTask(channel, bounds, lo, mid);
+                ParseTask right = new ParseTask(channel, bounds, mid, hi);
+                right.fork();
+                ArrayList<Chunk> result = left.compute();
+                result.addAll(right.join());
+                return result;
+            }
+
+            ArrayList<Chunk> result = new ArrayList<>(1);
+            result.add(parse(bounds[lo], bounds[hi]));
+            return result;
+        }
+
+        private Chunk parse(long from, long to) {
+            Chunk chunk = new Chunk();
+            if (to <= from)
+                return chunk;
+
+            CharBuffer text;
+            try {
+                MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                text = StandardCharsets.UTF_8.decode(buf);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+
+            // Rows are decoded in place from the chunk's chars by a codec owned by this worker
+            TaskCodec codec = new TaskCodec();
+            char[] chars = text.array();
+            int offset = text.arrayOffset() + text.position();
+            int limit = offset + text.remaining();
+            int start = offset;
+            while (start < limit) {
+                int end = start;
+                while (end < limit && chars[end] != '\n') end++;
+                int lineEnd = (end > start && chars[end - 1] == '\r') ? end - 1 : end;
+
+                if (lineEnd > start) {
+                    try {
+                        Task t = codec.decode(chars, start, lineEnd, false);
+                        if (t != null)
+                            chunk.tasks.add(t);
+                        else
+                            chunk.rejected++;
+                    }
+                    catch (DateTimeParseException | IllegalArgumentException e)
+                    {
+                        chunk.rejected++;
+                    }
+                }
+                start = end + 1;
+            }
+            return chunk;
+        }
+    }
+
+    // Usage: ParallelTaskLoader <csv>
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: ParallelTaskLoader <csv>");
+            return;
+        }
+        try {
+            ParallelTaskLoader loader = new ParallelTaskLoader();
+            List<Task> tasks = loader.load(args[0]);
+            System.out.println("Loaded " + tasks.size() + " tasks: " + loader.timings());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+}
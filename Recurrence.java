@@ -0,0 +1,237 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * How a recurring task repeats, counted from the task's due date (the anchor): every interval
+ * days, weeks or months, optionally until a last date. Monthly occurrences are counted from
+ * the anchor, so a series starting on the 31st falls on the last day of shorter months.
+ *
+ * Completed (or skipped) occurrences are kept sparsely: every occurrence before resume is done,
+ * and done holds the epoch days of the ones done after it. Finishing the first pending
+ * occurrence moves resume forward instead of growing done, so a series that is worked through
+ * in order stays a few words long however long it runs.
+ *
+ * Occurrences are computed, never stored: finding the first one on or after a date is O(1),
+ * so listing a range costs the occurrences inside it. Instances are immutable; complete
+ * returns a new one.
+ *
+ * Text form, as in the task files: WEEKLY/2 until=2031-06-30 from=2030-02-05 done=2030-02-19
+ */
+public class Recurrence {
+    public enum Frequency { DAILY, WEEKLY, MONTHLY }
+
+    private static final long[] NONE = new long[0];
+
+    private Frequency frequency;
+    private int interval;
+    private LocalDate until;
+    private LocalDate resume;
+    private long[] done;
+
+    public Recurrence(Frequency frequency, int interval, LocalDate until) {
+        this(frequency, interval, until, null, NONE);
+    }
+
+    private Recurrence(Frequency frequency, int interval, LocalDate until, LocalDate resume, long[] done) {
+        if (interval < 1)
+            throw new IllegalArgumentException("Recurrence interval must be at least 1");
+        this.frequency = frequency;
+        this.interval = interval;
+        this.until = until;
+        this.resume = resume;
+        this.done = done;
+    }
+
+    public Frequency getFrequency() { return frequency; }
+    public int getInterval() { return interval; }
+    public LocalDate getUntil() { return until; }
+
+    // The k-th occurrence of a series anchored at the given date
+    private LocalDate occurrence(LocalDate anchor, long k) {
+        switch (frequency) {
+            case DAILY: return anchor.plusDays(k * interval);
+            case WEEKLY: return anchor.plusWeeks(k * interval);
+            default: return anchor.plusMonths(k * interval);
+        }
+    }
+
+    // Index of the first occurrence on or after the date
+    private long index(LocalDate anchor, LocalDate date) {
+        if (!date.isAfter(anchor))
+            return 0;
+        long k;
+        if (frequency == Frequency.MONTHLY) {
+            long months = (date.getYear() - anchor.getYear()) * 12L + date.getMonthValue() - anchor.getMonthValue();
+            k = Math.max(0, months / interval);
+        }
+        else {
+            long step = (frequency == Frequency.WEEKLY) ? 7L * interval : interval;
+            long days = date.toEpochDay() - anchor.toEpochDay();
+            k = (days + step - 1) / step;
+        }
+        // Months are clamped to their length, so the estimate can be one short
+        while (occurrence(anchor, k).isBefore(date))
+            k++;
+        return k;
+    }
+
+    private boolean isDone(LocalDate date) {
+        return (resume != null && date.isBefore(resume)) || Arrays.binarySearch(done, date.toEpochDay()) >= 0;
+    }
+
+    public boolean isOccurrence(LocalDate anchor, LocalDate date) {
+        if (date.isBefore(anchor) || (until != null && date.isAfter(until)))
+            return false;
+        return occurrence(anchor, index(anchor, date)).equals(date);
+    }
+
+    public boolean isPending(LocalDate anchor, LocalDate date) {
+        return isOccurrence(anchor, date) && !isDone(date);
+    }
+
+    // First pending occurrence on or after the date, or null when the series has ended
+    public LocalDate next(LocalDate anchor, LocalDate from) {
+        if (resume != null && from.isBefore(resume))
+            from = resume;
+        for (long k = index(anchor, from); ; k++) {
+            LocalDate d = occurrence(anchor, k);
+            if (until != null && d.isAfter(until))
+                return null;
+            if (!isDone(d))
+                return d;
+        }
+    }
+
+    // Pending occurrences in [from, to], in order
+    public ArrayList<LocalDate> between(LocalDate anchor, LocalDate from, LocalDate to) {
+        ArrayList<LocalDate> list = new ArrayList<>();
+        if (resume != null && from.isBefore(resume))
+            from = resume;
+        if (until != null && to.isAfter(until))
+            to = until;
+        for (long k = index(anchor, from); ; k++) {
+            LocalDate d = occurrence(anchor, k);
+            if (d.isAfter(to))
+                return list;
+            if (Arrays.binarySearch(done, d.toEpochDay()) < 0)
+                list.add(d);
+        }
+    }
+
+    /*
+     * The recurrence with the given pending occurrence done, or null when that was the last
+     * one. Done days before the new resume point are dropped.
+     */
+    public Recurrence complete(LocalDate anchor, LocalDate date) {
+        if (!isPending(anchor, date))
+            throw new IllegalArgumentException(date + " is not a pending occurrence");
+        LocalDate first = next(anchor, anchor);
+        if (!date.equals(first)) {
+            long[] more = Arrays.copyOf(done, done.length + 1);
+            more[done.length] = date.toEpochDay();
+            Arrays.sort(more);
+            return new Recurrence(frequency, interval, until, resume, more);
+        }
+
+        Recurrence r = new Recurrence(frequency, interval, until, date.plusDays(1), done);
+        LocalDate nextPending = r.next(anchor, date.plusDays(1));
+        if (nextPending == null)
+            return null;
+        long from = nextPending.toEpochDay();
+        int drop = 0;
+        while (drop < done.length && done[drop] < from)
+            drop++;
+        return new Recurrence(frequency, interval, until, nextPending, (drop == 0) ? done : Arrays.copyOfRange(done, drop, done.length));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(frequency.toString());
+        if (interval != 1)
+            sb.append('/').append(interval);
+        if (until != null)
+            sb.append(" until=").append(until);
+        if (resume != null)
+            sb.append(" from=").append(resume);
+        for (long day : done)
+            sb.append(" done=").append(LocalDate.ofEpochDay(day));
+        return sb.toString();
+    }
+
+    // Reads the text form; throws IllegalArgumentException or DateTimeParseException when malformed
+    public static Recurrence parse(String s) {
+        String[] parts = s.trim().split(" +");
+        String rule = parts[0];
+        int slash = rule.indexOf('/');
+        Frequency frequency = Frequency.valueOf((slash < 0) ? rule : rule.substring(0, slash));
+        int interval = (slash < 0) ? 1 : Integer.parseInt(rule.substring(slash + 1));
+
+        LocalDate until = null;
+        LocalDate resume = null;
+        long[] done = NONE;
+        int count = 0;
+        for (int i=1;i<parts.length;i++) {
+            String p = parts[i];
+            if (p.startsWith("until="))
+                until = LocalDate.parse(p.substring(6));
+            else if (p.startsWith("from="))
+                resume = LocalDate.parse(p.substring(5));
+            else if (p.startsWith("done=")) {
+                if (count == done.length)
+                    done = Arrays.copyOf(done, parts.length - 1);
+                done[count++] = LocalDate.parse(p.substring(5)).toEpochDay();
+            }
+            else
+                throw new IllegalArgumentException("Bad recurrence: " + s);
+        }
+        if (count < done.length)
+            done = Arrays.copyOf(done, count);
+        Arrays.sort(done);
+        return new Recurrence(frequency, interval, until, resume, done);
+    }
+
+    /*
+     * Checks month clamping and sparse completion, and times listing a month at the start of a
+     * long daily series against one a century in: java Recurrence
+     */
+    public static void main(String[] args) {
+        LocalDate jan31 = LocalDate.of(2030, 1, 31);
+        Recurrence monthly = new Recurrence(Frequency.MONTHLY, 1, null);
+        System.out.println("Monthly from Jan 31: " + monthly.between(jan31, jan31, LocalDate.of(2030, 5, 31)));
+
+        LocalDate anchor = LocalDate.of(2030, 1, 1);
+        Recurrence daily = new Recurrence(Frequency.DAILY, 1, null);
+        for (int i=0;i<1000;i++)
+            daily = daily.complete(anchor, anchor.plusDays(i));
+        daily = daily.complete(anchor, anchor.plusDays(1005));
+        System.out.println("After 1000 days done in order and one ahead: " + daily);
+        Recurrence back = parse(daily.toString());
+        System.out.println("Round trip: " + back.toString().equals(daily.toString())
+                + ", next pending: " + back.next(anchor, anchor) + ", skips done: " + back.next(anchor, anchor.plusDays(1005)));
+
+        Recurrence weekly = new Recurrence(Frequency.WEEKLY, 2, anchor.plusWeeks(6));
+        LocalDate d = weekly.next(anchor, anchor);
+        while (d != null && (weekly = weekly.complete(anchor, d)) != null)
+            d = weekly.next(anchor, anchor);
+        System.out.println("Bounded series ends after its last occurrence: " + (weekly == null));
+
+        int rounds = 200000;
+        for (int pass=0;pass<2;pass++) {
+            long near = time(daily, anchor, anchor.plusMonths(40), rounds);
+            long far = time(daily, anchor, anchor.plusYears(100), rounds);
+            System.out.println("One month listed " + rounds + " times: " + near / 1000000 + " ms near the start, "
+                    + far / 1000000 + " ms a century in");
+        }
+    }
+
+    private static long time(Recurrence r, LocalDate anchor, LocalDate month, int rounds) {
+        long start = System.nanoTime();
+        int count = 0;
+        for (int i=0;i<rounds;i++)
+            count += r.between(anchor, month, month.plusMonths(1).minusDays(1)).size();
+        if (count == 0)
+            System.out.println("No occurrences");
+        return System.nanoTime() - start;
+    }
+}
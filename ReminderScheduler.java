@@ -0,0 +1,342 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/*
+ * Due-date reminders for every pending task, kept up to date through TaskMap events.
+ *
+ * A task is reminded lead before its due time, or before defaultTime on the due day when it
+ * has no time. Pending reminders sit in an indexed priority queue: a TreeSet ordered by firing
+ * time and task id, plus a map from task id to its entry, so adding, moving and cancelling a
+ * reminder are O(log n) and the timer only ever looks at the head. Reminders whose due moment
+ * has already passed are not scheduled. A recurring task has one entry, for its next pending
+ * occurrence, which moves on to the following occurrence when it fires.
+ *
+ * One-off tasks are only scheduled up to a horizon of HORIZON_DAYS past the lead, so opening
+ * the scheduler reads the next few days of the map rather than every future month. The horizon
+ * moves on with the clock each time reminders are run, scheduling the days it reaches, and tasks
+ * filed beyond it meanwhile are left for it to find.
+ *
+ * Time comes from a Clock; start() runs a timer thread that sleeps until the head is due, and
+ * headless callers can instead drive runDue() with a ManualClock. Reminders are handed to the
+ * delivery executor (Platform::runLater in the application), never called under the lock.
+ */
+public class ReminderScheduler implements TaskMapListener {
+    // Longest the timer sleeps, so a wall clock change is noticed within the hour
+    private static final long MAX_SLEEP = TimeUnit.HOURS.toMillis(1);
+    // Days past the lead whose one-off tasks are scheduled ahead
+    private static final int HORIZON_DAYS = 7;
+
+    private static class Entry implements Comparable<Entry> {
+        long fireAt;
+        Task task;
+
+        Entry(long fireAt, Task task) {
+            this.fireAt = fireAt;
+            this.task = task;
+        }
+
+        public int compareTo(Entry o) {
+            if (fireAt != o.fireAt)
+                return Long.compare(fireAt, o.fireAt);
+            return Long.compare(task.getId(), o.task.getId());
+        }
+    }
+
+    private TreeSet<Entry> queue = new TreeSet<>();
+    private HashMap<Long, Entry> byId = new HashMap<>();
+
+    private TaskMap taskMap;
+    // Last day whose one-off tasks are scheduled
+    private LocalDate horizon;
+    private Clock clock;
+    private Duration lead;
+    private LocalTime defaultTime;
+    private Executor delivery;
+    private Consumer<Task> notify;
+
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> armed;
+    private long armedAt = Long.MAX_VALUE;
+
+    // Schedule what the map holds from today to the horizon, and every series, and follow its changes from now on
+    public ReminderScheduler(TaskMap taskMap, Clock clock, Duration lead, LocalTime defaultTime,
+                             Executor delivery, Consumer<Task> notify) {
+        this.taskMap = taskMap;
+        this.clock = clock;
+        this.lead = lead;
+        this.defaultTime = defaultTime;
+        this.delivery = delivery;
+        this.notify = notify;
+
+        // Listener calls wait for the scan, so a task removed while it runs is not left behind
+        synchronized (this) {
+            taskMap.addListener(this);
+            LocalDate today = LocalDate.now(clock);
+            horizon = today.minusDays(1);
+            extend(today);
+            // A series is filed under its first date, which may be long past
+            for (Task t : taskMap.getSeries())
+                schedule(t);
+        }
+    }
+
+    // A one-off task beyond the horizon is scheduled when the horizon reaches its day
+    public synchronized void taskAdded(LocalDate date, Task task) {
+        if (task.getRecurrence() == null && date.isAfter(horizon))
+            return;
+        schedule(task);
+    }
+
+    public void taskRemoved(LocalDate date, Task task) {
+        cancel(task);
+    }
+
+    // When the task is due on the given day, in the clock's zone
+    private long dueAt(Task t, LocalDate day) {
+        LocalTime time = (t.getDueTime() == null) ? defaultTime : t.getDueTime();
+        ZoneId zone = clock.getZone();
+        return day.atTime(time).atZone(zone).toInstant().toEpochMilli();
+    }
+
+    // Adds or moves the task's reminder; returns false when it is already due
+    public synchronized boolean schedule(Task t) {
+        return schedule(t, LocalDate.now(clock));
+    }
+
+    // Recurring tasks are reminded of their first pending occurrence from the given day on
+    private boolean schedule(Task t, LocalDate from) {
+        cancel(t);
+        long now = clock.millis();
+        Recurrence r = t.getRecurrence();
+        Task reminded = t;
+        long due = dueAt(t, t.getDueDate());
+        if (r != null) {
+            LocalDate day = r.next(t.getDueDate(), from);
+            while (day != null && dueAt(t, day) <= now)
+                day = r.next(t.getDueDate(), day.plusDays(1));
+            if (day == null)
+                return false;
+            reminded = t.occurrence(day);
+            due = dueAt(t, day);
+        }
+        if (due <= now)
+            return false;
+        Entry e = new Entry(due - lead.toMillis(), reminded);
+        queue.add(e);
+        byId.put(t.getId(), e);
+        if (e.fireAt < armedAt)
+            arm();
+        return true;
+    }
+
+    // Schedule the one-off tasks of the days between the horizon and its new end
+    private void extend(LocalDate today) {
+        LocalDate end = today.plusDays(lead.toDays() + HORIZON_DAYS);
+        if (!end.isAfter(horizon))
+            return;
+        for (Task t : taskMap.getTasks(horizon.plusDays(1), end))
+            if (t.getRecurrence() == null)
+                schedule(t);
+        horizon = end;
+    }
+
+    public synchronized boolean cancel(Task t) {
+        Entry e = byId.remove(t.getId());
+        if (e == null)
+            return false;
+        queue.remove(e);
+        return true;
+    }
+
+    // Delivers every reminder that is due by the clock and returns how many there were
+    public int runDue() {
+        ArrayList<Task> due = new ArrayList<>();
+        synchronized (this) {
+            extend(LocalDate.now(clock));
+            long now = clock.millis();
+            while (!queue.isEmpty() && queue.first().fireAt <= now) {
+                Entry e = queue.pollFirst();
+                byId.remove(e.task.getId());
+                due.add(e.task);
+            }
+            for (Task t : due)
+                if (t.getSeries() != null)
+                    schedule(t.getSeries(), t.getDueDate().plusDays(1));
+        }
+        for (Task t : due)
+            delivery.execute(() -> notify.accept(t));
+        return due.size();
+    }
+
+    // When the next reminder fires, or null when none is pending
+    public synchronized Instant nextReminder() {
+        return queue.isEmpty() ? null : Instant.ofEpochMilli(queue.first().fireAt);
+    }
+
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    public synchronized void start() {
+        if (timer != null)
+            return;
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reminders");
+            t.setDaemon(true);
+            return t;
+        });
+        arm();
+    }
+
+    public synchronized void close() {
+        if (timer != null)
+            timer.shutdownNow();
+        timer = null;
+        armed = null;
+        armedAt = Long.MAX_VALUE;
+    }
+
+    // Wake the timer for the head of the queue, replacing a later wake-up
+    private void arm() {
+        if (timer == null)
+            return;
+        if (armed != null)
+            armed.cancel(false);
+        long now = clock.millis();
+        long wake = queue.isEmpty() ? now + MAX_SLEEP : Math.min(queue.first().fireAt, now + MAX_SLEEP);
+        armedAt = queue.isEmpty() ? Long.MAX_VALUE : wake;
+        armed = timer.schedule(this::tick, Math.max(0, wake - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void tick() {
+        runDue();
+        synchronized (this) {
+            armed = null;
+            armedAt = Long.MAX_VALUE;
+            arm();
+        }
+    }
+
+    // Clock for tests and headless runs that only moves when told to
+    public static class ManualClock extends Clock {
+        private volatile Instant now;
+        private ZoneId zone;
+
+        public ManualClock(Instant now, ZoneId zone) {
+            this.now = now;
+            this.zone = zone;
+        }
+
+        public void advance(Duration d) {
+            now = now.plus(d);
+        }
+
+        public ZoneId getZone() { return zone; }
+        public Clock withZone(ZoneId zone) { return new ManualClock(now, zone); }
+        public Instant instant() { return now; }
+    }
+
+    /*
+     * Files fifty thousand tasks in a temporary TaskMap, half before the scheduler exists and
+     * half after, along with a weekly series that started before the clock, moves and deletes
+     * some, then walks a manual clock forward and checks only the days up to the horizon are
+     * scheduled at first and every reminder fires once and in order. Larger counts mostly time the map's day copies and compactions rather than the
+     * scheduler: java ReminderScheduler [tasks]
+     */
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+        ZoneId zone = ZoneId.of("UTC");
+        LocalDate first = LocalDate.of(2030, 1, 1);
+        ManualClock clock = new ManualClock(first.minusDays(1).atStartOfDay(zone).toInstant(), zone);
+        File dir = TempDir.create("reminders");
+        try {
+            TaskMap taskMap = new TaskMap(dir.getPath(), true);
+            ArrayList<Task> tasks = new ArrayList<>();
+            for (int i=0;i<count;i++) {
+                Task t = new Task("Reminder " + i, null, first.plusDays(i % 365), Task.Priority.MEDIUM, null);
+                if (i % 2 == 0)
+                    t.setDueTime(LocalTime.of(i % 24, i % 60));
+                tasks.add(t);
+            }
+
+            // Ten occurrences from the clock's start on: first and the nine weeks after it
+            Task weekly = new Task("Weekly", null, first.minusDays(28), Task.Priority.HIGH, null);
+            weekly.setRecurrence(Recurrence.parse("WEEKLY until=" + first.plusDays(69)));
+            taskMap.addTask(weekly.getDueDate(), weekly);
+            int occurrences = 10;
+
+            long start = System.nanoTime();
+            taskMap.addAll(tasks.subList(0, count / 2));
+            ArrayList<Task> delivered = new ArrayList<>();
+            ReminderScheduler scheduler = new ReminderScheduler(taskMap, clock, Duration.ofMinutes(15),
+                    LocalTime.of(9, 0), Runnable::run, delivered::add);
+            taskMap.addAll(tasks.subList(count / 2, count));
+            long scheduled = System.nanoTime();
+
+            // Move every tenth task a day later and delete the fifth one after it
+            int moved = 0;
+            int deleted = 0;
+            for (int i=0;i<count;i+=10) {
+                Task t = tasks.get(i);
+                Task later = new Task(t.getId(), t.getName(), null, t.getDueDate().plusDays(1), t.getPriority(), (long[]) null, t.getAddedDate());
+                later.setDueTime(t.getDueTime());
+                if (taskMap.updateTask(t.getDueDate(), later))
+                    moved++;
+                if (i + 5 < count && taskMap.removeTask(tasks.get(i + 5).getDueDate(), tasks.get(i + 5)))
+                    deleted++;
+            }
+            long rescheduled = System.nanoTime();
+
+            // The first days up to the horizon, plus the series
+            LocalDate horizon = first.minusDays(1).plusDays(HORIZON_DAYS);
+            int pending = scheduler.size();
+            int expected = taskMap.getTasks(first, horizon).size() + 1;
+            LocalDate end = first.plusDays(366);
+            long last = Long.MIN_VALUE;
+            boolean ordered = true;
+            int fired = 0;
+            while (scheduler.nextReminder() != null || !LocalDate.now(clock).isAfter(end)) {
+                clock.advance(Duration.ofHours(1));
+                int before = delivered.size();
+                fired += scheduler.runDue();
+                for (int i=before;i<delivered.size();i++) {
+                    Task t = delivered.get(i);
+                    long at = scheduler.dueAt(t, t.getDueDate()) - scheduler.lead.toMillis();
+                    ordered &= at >= last && at <= clock.millis();
+                    last = at;
+                }
+            }
+            long done = System.nanoTime();
+
+            System.out.println("Scheduled " + count + " in " + (scheduled - start) / 1000000 + " ms; moved " + moved
+                    + " and deleted " + deleted + " in " + (rescheduled - scheduled) / 1000000 + " ms");
+            int weeklyFired = 0;
+            for (Task t : delivered)
+                if (t.getId() == weekly.getId())
+                    weeklyFired++;
+            System.out.println(pending + " pending up to " + horizon + "; fired " + fired + " (" + (count - deleted) + " tasks and "
+                    + occurrences + " occurrences expected), in order: " + ordered + " (" + (done - rescheduled) / 1000000 + " ms)");
+            if (fired != count - deleted + occurrences || weeklyFired != occurrences || pending != expected || !ordered)
+                System.exit(1);
+        }
+        finally
+        {
+            TempDir.delete(dir);
+        }
+    }
+}
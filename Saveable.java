@@ -0,0 +1,13 @@
+import java.io.IOException;
+
+// State the autosave service can persist
+public interface Saveable {
+    // Runs on the thread that owns the state and captures what to write, or returns null when
+    // there is nothing to do
+    Write snapshot();
+
+    // Runs on the autosave thread
+    interface Write {
+        void write() throws IOException;
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/*
+ * Inverted index over task names and descriptions, kept up to date through TaskMap events.
+ *
+ * Every query token is matched as a prefix. Candidates come from the most selective token, since
+ * a task matching the whole query is in each token's postings, so a keystroke costs what that
+ * token matches rather than the history. Every candidate is scored, by where each token hits:
+ * an exact word in the name scores highest, then a prefix in the name, then the description,
+ * and a heap of limit entries keeps the best. Updates and searches are synchronized, since
+ * TaskMap calls its listeners on whichever thread changed it.
+ *
+ * The postings hold where each task is filed rather than the task, and record whether a term
+ * is in its name, so ranking needs no task and only the results shown are looked up in the
+ * map. Memory therefore follows the words in the store, and days stay free to be evicted.
+ */
+public class SearchIndex implements TaskMapListener {
+    private static final int MAX_TERMS = 256;
+
+    // A task by its due date (its first date, for a series) and id
+    private static class Ref {
+        private long day;
+        private long id;
+
+        Ref(Task t) {
+            this.day = t.getDueDate().toEpochDay();
+            this.id = t.getId();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Ref)) return false;
+            Ref r = (Ref) o;
+            return day == r.day && id == r.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(day * 31 + id);
+        }
+    }
+
+    private TaskMap taskMap;
+    // Term to the tasks it occurs in, each with whether it occurs in the name
+    private HashMap<String, HashMap<Ref, Boolean>> postings = new HashMap<>();
+    private TreeSet<String> terms = new TreeSet<>();
+
+    /*
+     * Index what the map already holds and follow its changes from now on. Decodes every day,
+     * so callers run it off the FX thread. Events wait for the day being indexed, which is read
+     * after its latest change, so one that lands during the scan is neither lost nor undone.
+     */
+    public SearchIndex(TaskMap taskMap) {
+        this.taskMap = taskMap;
+        taskMap.addListener(this);
+        for (LocalDate day = taskMap.nextNonEmptyDay(LocalDate.MIN); day != null; day = taskMap.nextNonEmptyDay(day)) {
+            synchronized (this) {
+                Collection<Task> tasks = taskMap.getTasks(day);
+                if (tasks != null)
+                    for (Task t : tasks)
+                        add(t);
+            }
+        }
+    }
+
+    public void taskAdded(LocalDate date, Task task) {
+        add(task);
+    }
+
+    public void taskRemoved(LocalDate date, Task task) {
+        remove(task);
+    }
+
+    public synchronized void add(Task t) {
+        Ref ref = new Ref(t);
+        HashSet<String> name = new HashSet<>(tokenize(t.getName()));
+        for (String term : termsOf(t)) {
+            HashMap<Ref, Boolean> tasks = postings.get(term);
+            if (tasks == null) {
+                tasks = new HashMap<>();
+                postings.put(term, tasks);
+                terms.add(term);
+            }
+            tasks.put(ref, name.contains(term));
+        }
+    }
+
+    public synchronized void remove(Task t) {
+        Ref ref = new Ref(t);
+        for (String term : termsOf(t)) {
+            HashMap<Ref, Boolean> tasks = postings.get(term);
+            if (tasks == null)
+                continue;
+            tasks.remove(ref);
+            if (tasks.isEmpty()) {
+                postings.remove(term);
+                terms.remove(term);
+            }
+        }
+    }
+
+    public synchronized ArrayList<Task> search(String query, int limit) {
+        ArrayList<String> tokens = tokenize(query);
+        ArrayList<Task> results = new ArrayList<>();
+        if (tokens.isEmpty())
+            return results;
+
+        // Expand every token to the terms it prefixes, shortest terms first
+        ArrayList<ArrayList<String>> expansions = new ArrayList<>();
+        int best = -1;
+        long bestSize = Long.MAX_VALUE;
+        for (String token : tokens) {
+            ArrayList<String> matching = new ArrayList<>();
+            for (String term : terms.subSet(token, true, token + Character.MAX_VALUE, false)) {
+                matching.add(term);
+                if (matching.size() == MAX_TERMS) break;
+            }
+            if (matching.isEmpty())
+                return results;
+            matching.sort(Comparator.comparingInt(String::length));
+
+            long size = 0;
+            for (String term : matching)
+                size += postings.get(term).size();
+            expansions.add(matching);
+            if (size < bestSize) {
+                bestSize = size;
+                best = expansions.size() - 1;
+            }
+        }
+
+        // Candidates from the most selective token, checked against the others. The heap is
+        // ordered worst first, so its head is the hit to drop when a better one comes
+        HashSet<Ref> candidates = new HashSet<>();
+        for (String term : expansions.get(best))
+            candidates.addAll(postings.get(term).keySet());
+
+        PriorityQueue<Hit> top = new PriorityQueue<>(RANKING.reversed());
+        for (Ref ref : candidates) {
+            int score = score(ref, tokens, expansions);
+            if (score == 0)
+                continue;
+            Hit hit = new Hit(ref, score);
+            if (top.size() < limit)
+                top.add(hit);
+            else if (limit > 0 && RANKING.compare(hit, top.peek()) < 0) {
+                top.poll();
+                top.add(hit);
+            }
+        }
+
+        ArrayList<Hit> hits = new ArrayList<>(top);
+        hits.sort(RANKING);
+        // A recurring task is indexed as its series and shown as its first pending occurrence, so
+        // completing a result finishes that occurrence rather than removing the series
+        for (int i=0;i<hits.size() && results.size()<limit;i++) {
+            Task t = taskMap.find(LocalDate.ofEpochDay(hits.get(i).ref.day), hits.get(i).ref.id);
+            if (t != null && t.getRecurrence() != null)
+                t = t.nextOccurrence(t.getDueDate());
+            if (t != null)
+                results.add(t);
+        }
+        return results;
+    }
+
+    // Best first: highest score, then earliest date, then oldest task
+    private static final Comparator<Hit> RANKING = Comparator.comparingInt((Hit h) -> -h.score)
+            .thenComparingLong(h -> h.ref.day)
+            .thenComparingLong(h -> h.ref.id);
+
+    private static class Hit {
+        private Ref ref;
+        private int score;
+
+        Hit(Ref ref, int score) {
+            this.ref = ref;
+            this.score = score;
+        }
+    }
+
+    // 0 when some token does not match the task at all. A token scores by the best term it
+    // expands to: an exact word beats a prefix, and the name beats the description
+    private int score(Ref ref, ArrayList<String> tokens, ArrayList<ArrayList<String>> expansions) {
+        int total = 0;
+        for (int k=0;k<tokens.size();k++) {
+            int s = 0;
+            for (String term : expansions.get(k)) {
+                Boolean inName = postings.get(term).get(ref);
+                if (inName != null)
+                    s = Math.max(s, (inName ? 3 : 1) + (term.equals(tokens.get(k)) ? 1 : 0));
+            }
+            if (s == 0)
+                return 0;
+            total += s;
+        }
+        return total;
+    }
+
+    private static Collection<String> termsOf(Task t) {
+        HashSet<String> set = new HashSet<>(tokenize(t.getName()));
+        set.addAll(tokenize(t.getDescription()));
+        return set;
+    }
+
+    // Lower-cased runs of letters and digits
+    public static ArrayList<String> tokenize(String text) {
+        ArrayList<String> tokens = new ArrayList<>();
+        if (text == null)
+            return tokens;
+
+        int start = -1;
+        for (int i=0;i<=text.length();i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0)
+                start = i;
+            else if (!word && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /*
+     * Indexes more than 2000 tasks for the query's most selective token and makes the only task
+     * matching the whole query one that sits past the first 2000 of that token's postings, then
+     * checks it is found and that a one-token query keeps the best ranked hits in order:
+     * java SearchIndex
+     */
+    public static void main(String[] args) throws IOException {
+        LocalDate day = LocalDate.of(2030, 1, 1);
+        File dir = TempDir.create("search");
+        try {
+            TaskMap taskMap = new TaskMap(dir.getPath(), true);
+            ArrayList<Task> alphas = new ArrayList<>();
+            ArrayList<Task> tasks = new ArrayList<>();
+            for (int i=0;i<2500;i++) {
+                Task t = new Task("Alpha " + i, null, day, Task.Priority.MEDIUM, null);
+                alphas.add(t);
+                tasks.add(t);
+            }
+            for (int i=0;i<5000;i++)
+                tasks.add(new Task("Task " + i, "Beta", day, Task.Priority.LOW, null));
+            taskMap.addAll(tasks);
+            SearchIndex index = new SearchIndex(taskMap);
+
+            // Give the 2400th posting of "alpha" the other token too
+            int position = 0;
+            long id = -1;
+            for (Ref ref : index.postings.get("alpha").keySet())
+                if (position++ == 2400)
+                    id = ref.id;
+            Task match = null;
+            for (Task t : alphas)
+                if (t.getId() == id)
+                    match = t;
+            Task both = new Task(match.getId(), match.getName(), "Beta", day, match.getPriority(), (long[]) null, match.getAddedDate());
+            taskMap.updateTask(day, both);
+
+            position = 0;
+            for (Ref ref : index.postings.get("alpha").keySet()) {
+                if (ref.id == id)
+                    break;
+                position++;
+            }
+            ArrayList<Task> found = index.search("alpha beta", 10);
+            boolean ok = position >= 2000 && found.size() == 1 && found.get(0).getId() == id;
+            System.out.println("Full match at posting " + position + " of " + index.postings.get("alpha").size() + ": found " + !found.isEmpty());
+
+            // Every Alpha task scores the same on the same day, so the oldest come first
+            ArrayList<Task> first = index.search("alpha", 5);
+            ok &= first.size() == 5;
+            for (int i=0;i<first.size();i++)
+                ok &= first.get(i).getId() == alphas.get(i).getId();
+            System.out.println(ok ? "All checks passed" : "Checks FAILED");
+            if (!ok)
+                System.exit(1);
+        }
+        finally
+        {
+            TempDir.delete(dir);
+        }
+    }
+}
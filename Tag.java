@@ -1,14 +1,31 @@
+import java.util.ArrayList;
+
 import javafx.scene.paint.Color;
 
 public class Tag {
+    private int id;
     private String name;
     private Color color;
 
+    // The id is assigned by TagManager when the tag is registered
     public Tag(String name, Color color) {
+        this(-1, name, color);
+    }
+
+    public Tag(int id, String name, Color color) {
+        this.id = id;
         this.name = name;
         this.color = color;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public String getName() {
         return name;
     }
@@ -26,15 +43,17 @@ public class Tag {
     }
 
     public String toString() {
-        return name + ";" + color.toString();
+        return TaskCodec.escape(name) + ";" + color.toString() + ";" + id;
     }
 
+    // Rows written before ids existed have two fields and get an id when registered
     public static Tag fromCSV(String csvLine) {
-        String[] parts = csvLine.split(";");
-        if (parts.length == 2) {
-            String name = parts[0];
-            Color color = Color.web(parts[1]);
-            return new Tag(name, color);
+        ArrayList<String> parts = TaskCodec.fields(csvLine);
+        if (parts.size() == 2 || parts.size() == 3) {
+            String name = parts.get(0);
+            Color color = Color.web(parts.get(1));
+            int id = (parts.size() == 3) ? Integer.parseInt(parts.get(2)) : -1;
+            return new Tag(id, name, color);
         }
         return null;
     }
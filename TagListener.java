@@ -0,0 +1,6 @@
+// Receives every tag added to or removed from a TagManager
+public interface TagListener {
+    void tagAdded(Tag tag);
+
+    void tagRemoved(Tag tag);
+}
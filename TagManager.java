@@ -1,25 +1,79 @@
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import javafx.scene.paint.Color;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.shape.Circle;
 import javafx.util.Callback;
 
-public class TagManager {
+// Safe to use from any number of threads. Changes hold the manager's lock and publish a copy
+// of the lookups, which find and get read without locking, since decoding calls them per tag
+public class TagManager implements Saveable {
     private ArrayList<Tag> taglist;
-    private static final String TAG_FILE = "data/tags.csv";
+    private HashMap<String, Tag> byName;
+    private ArrayList<Tag> byId;
+    private volatile Lookup lookup = new Lookup(new HashMap<>(), new Tag[0]);
+    private CopyOnWriteArrayList<TagListener> listeners = new CopyOnWriteArrayList<>();
+    private String dataDir;
+    private String tagFile;
+    private static TagManager instance;
+
+    // An immutable copy of byName and byId, replaced whenever they change
+    private static class Lookup {
+        final HashMap<String, Tag> byName;
+        final Tag[] byId;
+
+        Lookup(HashMap<String, Tag> byName, Tag[] byId) {
+            this.byName = byName;
+            this.byId = byId;
+        }
+    }
 
     public TagManager(){
+        this("data");
+    }
+
+    // Keeps the tags in tags.csv in the given directory
+    public TagManager(String dataDir){
+        this.dataDir = dataDir;
+        this.tagFile = dataDir + "/tags.csv";
         taglist = new ArrayList<>();
+        byName = new HashMap<>();
+        byId = new ArrayList<>();
         loadTagsfromCSV();
+        publish();
+    }
+
+    // The manager shared by Task and the views, so tag ids resolve the same everywhere
+    public static synchronized TagManager getInstance() {
+        if (instance == null)
+            instance = new TagManager();
+        return instance;
+    }
+
+    // The shared manager, loaded from the given directory. Tasks resolve their tag ids through
+    // it, so a process works with the tags of one data directory only
+    public static synchronized TagManager open(String dataDir) {
+        if (instance == null)
+            instance = new TagManager(dataDir);
+        else if (!new File(instance.dataDir).getAbsoluteFile().equals(new File(dataDir).getAbsoluteFile()))
+            throw new IllegalStateException("Tags are already loaded from " + instance.dataDir);
+        return instance;
     }
 
     private void loadTagsfromCSV(){
+        // A new data directory has no tags yet
+        if (!new File(tagFile).exists())
+            return;
         try 
         {
-            BufferedReader br = new BufferedReader(new FileReader(TAG_FILE));
+            BufferedReader br = new BufferedReader(new FileReader(tagFile, StandardCharsets.UTF_8));
             String line;
+            ArrayList<Tag> unnumbered = new ArrayList<>();
 
             while (true)
             {
@@ -27,14 +81,22 @@ public class TagManager {
                 if (line==null) break;
                 Tag t = Tag.fromCSV(line.trim());
                 if (t==null) break;
-                taglist.add(t);
+                if (t.getId() < 0 || (t.getId() < byId.size() && byId.get(t.getId()) != null))
+                    unnumbered.add(t);
+                else
+                    register(t);
             }
             br.close();
+
+            for (Tag t:unnumbered)
+            {
+                t.setId(byId.size());
+                register(t);
+            }
         }
         catch (IOException e)
         {
             System.out.println("Error: " + e.getMessage());
-            System.exit(1);
         }
     }
 
@@ -42,67 +104,118 @@ public class TagManager {
     {
         try
         {
-            BufferedWriter bw = new BufferedWriter(new FileWriter(TAG_FILE));
-            for (Tag t:taglist)
-            {
-                bw.write(t.toString());
-                bw.newLine();
-            }
-            bw.close();
+            snapshot().write();
         }
         catch (IOException e)
         {
             System.out.println("Error: " + e.getMessage());
-            System.exit(1);
         }
     }
 
-    public ArrayList<Tag> getTagList(){
-        return taglist;
+    // The rows are captured here; the returned write replaces the tag file atomically
+    public synchronized Saveable.Write snapshot()
+    {
+        ArrayList<String> rows = new ArrayList<>();
+        for (Tag t:taglist)
+            rows.add(t.toString());
+
+        return () -> {
+            AtomicFile target = new AtomicFile(tagFile);
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(target.startWrite(), StandardCharsets.UTF_8));
+            try
+            {
+                for (String row:rows)
+                {
+                    bw.write(row);
+                    bw.newLine();
+                }
+                bw.flush();
+                target.finishWrite();
+            }
+            catch (IOException e)
+            {
+                target.failWrite();
+                throw e;
+            }
+        };
+    }
+
+    // A copy, in the order the tags were added
+    public synchronized ArrayList<Tag> getTagList(){
+        return new ArrayList<>(taglist);
+    }
+
+    public void addListener(TagListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TagListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void register(Tag t) {
+        taglist.add(t);
+        byName.put(key(t.getName()), t);
+        while (byId.size() <= t.getId())
+            byId.add(null);
+        byId.set(t.getId(), t);
+    }
+
+    // Caller holds the lock, or is the constructor
+    private void publish() {
+        lookup = new Lookup(new HashMap<>(byName), byId.toArray(new Tag[0]));
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
     }
 
-    public void AddTag(String n, Color color){
-        Tag t = new Tag(n,color);
+    // Ids are never reused, so a task holding the id of a removed tag cannot pick up a new one
+    public synchronized void AddTag(String n, Color color){
+        Tag t = new Tag(byId.size(), n, color);
         if (!this.contains(t)){
-            taglist.add(t);
-            saveTagsToCSV();
+            register(t);
+            publish();
+            for (TagListener l : listeners)
+                l.tagAdded(t);
         }
         else
             System.out.println("Tag already exists.");
     }
 
-    public void RemoveTag(String n){
-        Tag t = null;
-        for (Tag tag:taglist)
-        {
-            if (tag.getName().equalsIgnoreCase(n))
-            {
-                t = tag;
-                break;
-            }
-        }
+    public synchronized void RemoveTag(String n){
+        Tag t = byName.remove(key(n));
         if (t==null)
             System.out.print("Tag Not found");
         else
         {
             taglist.remove(t);
+            byId.set(t.getId(), null);
+            publish();
+            for (TagListener l : listeners)
+                l.tagRemoved(t);
         }
     }
 
-    public boolean contains(Tag t)
+    public synchronized boolean contains(Tag t)
     {
-        for (Tag tag:taglist)
-            if (tag.getName().equalsIgnoreCase(t.getName()))
-                return true; 
-        return false;
+        return byName.containsKey(key(t.getName()));
     }
 
     public Tag find(String name)
     {
-        for (Tag tag:taglist)
-            if (tag.getName().equalsIgnoreCase(name))
-                return tag; 
-        return null;
+        Metrics.TAG_LOOKUPS.increment();
+        return lookup.byName.get(key(name));
+    }
+
+    // Tag with the given id, or null if it was removed
+    public Tag get(int id)
+    {
+        Metrics.TAG_LOOKUPS.increment();
+        Tag[] tags = lookup.byId;
+        if (id < 0 || id >= tags.length)
+            return null;
+        return tags[id];
     }
 
 
@@ -1,20 +1,40 @@
 import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javafx.beans.binding.StringBinding;
 import javafx.scene.paint.Color;
 
 public class Task {
+    private long id;
     private String name;
     private String description=null;
     private LocalDate dueDate;
+    private LocalTime dueTime=null;
     private Priority priority=null;
     private LocalDate addedDate;
-    private ArrayList<Tag> tags=null;
-
-    private static TagManager tagManager = new TagManager();
-
-    public Task(String name, String description, LocalDate dueDate, Priority priority, ArrayList<Tag> tags, LocalDate addedDate) {
+    private long[] tagBits=null;
+    private Recurrence recurrence=null;
+    // For an occurrence of a recurring task, the task it was expanded from
+    private Task series=null;
+
+    private static TagManager tagManager = TagManager.getInstance();
+    private static AtomicLong nextId = new AtomicLong(1);
+    // Order within a day: priority (unset last), then due time (untimed last), then id
+    public static final Comparator<Task> BY_PRIORITY = (a, b) -> {
+        if (a.priorityRank() != b.priorityRank())
+            return Integer.compare(a.priorityRank(), b.priorityRank());
+        if (a.dueMinute() != b.dueMinute())
+            return Integer.compare(a.dueMinute(), b.dueMinute());
+        return Long.compare(a.id, b.id);
+    };
+    private static ThreadLocal<TaskCodec> codec = ThreadLocal.withInitial(() -> new TaskCodec(tagManager));
+
+    public Task(long id, String name, String description, LocalDate dueDate, Priority priority, ArrayList<Tag> tags, LocalDate addedDate) {
+        this.id = id;
         this.name = name;
         this.description = description;
         this.dueDate = dueDate;
@@ -23,49 +43,146 @@ public class Task {
 
         if (tags!=null)
         {
-            this.tags = new ArrayList<>();
+            this.tagBits = new long[1];
 
             for (Tag t:tags)
                 this.addTag(t);
         }
+
+        nextId.accumulateAndGet(id + 1, Math::max);
     }
 
-    public Task(String name, String description, LocalDate dueDate, Priority priority, ArrayList<Tag> tags) {
+    // Tags already resolved to bits, as TaskCodec decodes them
+    public Task(long id, String name, String description, LocalDate dueDate, Priority priority, long[] tagBits, LocalDate addedDate) {
+        this.id = id;
         this.name = name;
         this.description = description;
         this.dueDate = dueDate;
         this.priority = priority;
-        this.addedDate = LocalDate.now();
-        
-        if (tags!=null)
-        {
-            this.tags = new ArrayList<>();
+        this.addedDate = addedDate;
+        this.tagBits = tagBits;
 
-            for (Tag t:tags)
-                this.addTag(t);
-        }
+        nextId.accumulateAndGet(id + 1, Math::max);
+    }
+
+    public Task(String name, String description, LocalDate dueDate, Priority priority, ArrayList<Tag> tags, LocalDate addedDate) {
+        this(newId(), name, description, dueDate, priority, tags, addedDate);
+    }
+
+    public Task(String name, String description, LocalDate dueDate, Priority priority, ArrayList<Tag> tags) {
+        this(newId(), name, description, dueDate, priority, tags, LocalDate.now());
+    }
+
+    private static long newId() {
+        return nextId.getAndIncrement();
+    }
+
+    // Keep new ids above those of tasks still held as records, which no constructor has seen
+    public static void reserveIds(long maxId) {
+        nextId.accumulateAndGet(maxId + 1, Math::max);
+    }
+
+    // Rows parsed with fromCSV(line, false) have id 0 until the loader numbers them in file order
+    public void assignIdIfMissing() {
+        if (id == 0)
+            id = newId();
     }
 
+    public long getId() { return id; }
     public String getName() { return name; }
     public String getDescription() { return description; }
     public LocalDate getDueDate() { return dueDate; }
+    public LocalTime getDueTime() { return dueTime; }
     public Priority getPriority() { return priority; }
     public LocalDate getAddedDate() { return addedDate; }
-    public ArrayList<Tag> getTags() { return tags; }
+    public long[] getTagBits() { return tagBits; }
+    public Recurrence getRecurrence() { return recurrence; }
+    public Task getSeries() { return series; }
+    public static TagManager getTagManager() { return tagManager; }
+
+    // Resolves the tag bits, skipping tags that have since been removed
+    public ArrayList<Tag> getTags() {
+        if (tagBits==null) return null;
+        ArrayList<Tag> list = new ArrayList<>();
+        for (int w=0;w<tagBits.length;w++) {
+            long word = tagBits[w];
+            while (word != 0) {
+                Tag t = tagManager.get(w*64 + Long.numberOfTrailingZeros(word));
+                if (t!=null)
+                    list.add(t);
+                word &= word - 1;
+            }
+        }
+        return list;
+    }
 
-    public void setName(String n) {this.name = n;}
-    public void setDescription(String desc) {this.description = desc;}
-    public void setDueDate(LocalDate DueDate) {this.dueDate = DueDate;}
-    public void setPriority(Priority p) {this.priority = p;}
+    // Optional time of day on the due date; set it before the task is filed, since TaskMap and
+    // ReminderScheduler index tasks by their due date and time
+    public void setDueTime(LocalTime dueTime) {
+        this.dueTime = dueTime;
+    }
+
+    public int priorityRank() {
+        return (priority == null) ? Priority.values().length : priority.ordinal();
+    }
+
+    // Minute of the day the task is due, or the end of the day when it has no time
+    public int dueMinute() {
+        return (dueTime == null) ? 24*60 : dueTime.getHour()*60 + dueTime.getMinute();
+    }
+
+    // Like setDueTime, only for tasks that are not filed yet
+    public void setRecurrence(Recurrence recurrence) {
+        this.recurrence = recurrence;
+    }
+
+    // A copy of this task with another recurrence, for replacing it through TaskMap.updateTask
+    public Task withRecurrence(Recurrence recurrence) {
+        Task t = new Task(id, name, description, dueDate, priority, tagBits, addedDate);
+        t.dueTime = dueTime;
+        t.recurrence = recurrence;
+        return t;
+    }
+
+    // A copy of this task under a new id, for an imported task whose id is already taken
+    public Task withNewId() {
+        Task t = withRecurrence(recurrence);
+        t.id = newId();
+        return t;
+    }
+
+    // The occurrence of this recurring task on the given date; it shares the id of the series
+    public Task occurrence(LocalDate date) {
+        Task t = withRecurrence(recurrence);
+        t.dueDate = date;
+        t.series = this;
+        return t;
+    }
+
+    // The first pending occurrence of this recurring task on or after the date, or null when the series has ended
+    public Task nextOccurrence(LocalDate from) {
+        LocalDate d = recurrence.next(dueDate, from.isBefore(dueDate) ? dueDate : from);
+        return (d == null) ? null : occurrence(d);
+    }
+
+    public boolean hasTag(int tagId) {
+        int w = tagId >>> 6;
+        return tagBits!=null && w < tagBits.length && (tagBits[w] & (1L << tagId)) != 0;
+    }
 
     public void addTag(Tag tag) { // Method to add a tag
-        if (!tags.contains(tag) && tagManager.contains(tag)) {
-            tags.add(tag);
-        }
+        Tag registered = tagManager.find(tag.getName());
+        if (registered==null)
+            return;
+        int w = registered.getId() >>> 6;
+        if (tagBits==null || w >= tagBits.length)
+            tagBits = (tagBits==null) ? new long[w + 1] : Arrays.copyOf(tagBits, w + 1);
+        tagBits[w] |= 1L << registered.getId();
     }
 
     public void removeTag(Tag tag) { // Method to remove a tag
-        tags.remove(tag);
+        if (hasTag(tag.getId()))
+            tagBits[tag.getId() >>> 6] &= ~(1L << tag.getId());
     }
 
     public enum Priority {
@@ -88,48 +205,33 @@ public class Task {
 
     public String toString()
     {
-        StringBuilder tagString = new StringBuilder();
-        if (tags==null || tags.isEmpty()) tagString.append("null");
-        else{
-            tagString.append(tags.get(0).getName());
-            for (int i=1;i<tags.size();i++)
-                tagString.append("," + tags.get(i).getName());
-        }
-        String tagstr = tagString.toString();
-        String added = addedDate.toString();
-        return (name + ";" + ((description==null)?"null":description) + ";" + dueDate.toString() + ";" + ((priority==null)?"null":priority.toString()) + ";" + tagstr + ";" + added);
+        return codec.get().encode(this).toString();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof Task)) return false;
+        Task t = (Task) o;
+        // Occurrences of one series share its id and differ by date
+        if (series != null || t.series != null)
+            return id == t.id && series != null && t.series != null && dueDate.equals(t.dueDate);
+        return id == t.id;
     }
 
-    public Boolean Equals(Task t)
+    @Override
+    public int hashCode()
     {
-        if (this.toString().equals(t.toString()))
-            return true;
-        return false;
+        return Long.hashCode(id);
     }
 
+    // Rows written before ids existed have six fields and get a fresh id
     public static Task fromCSV(String csvLine) {
-        String[] parts = csvLine.split(";");
-        if (parts.length == 6) {
-            String name = parts[0];
-            String desc = (parts[1].equals("null")) ? null : parts[1];
-            LocalDate due = LocalDate.parse(parts[2]);
-            Priority priority = (parts[3].equals("null")) ? null : Priority.parse(parts[3]);
-            ArrayList<Tag> tags;
-            if (parts[4].equals("null")) {
-                tags = null;
-            } else {
-                tags = new ArrayList<>();
-                String tot[] = parts[4].split(",");
-                for (String s : tot) {
-                    if (tagManager.find(s)!=null)
-                        tags.add(tagManager.find(s));
-                }
-            }
-            LocalDate added = LocalDate.parse(parts[5]);
-    
-            return new Task(name, desc, due, priority, tags, added);
-        }
-        return null;
+        return fromCSV(csvLine, true);
+    }
+
+    public static Task fromCSV(String csvLine, boolean newId) {
+        return codec.get().decode(csvLine, newId);
     }
-    
 }
\ No newline at end of file
@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Circle;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+
+// Row of the task list; the node graph is built once per cell and reused for every item it shows
+public class TaskCell extends ListCell<Object> {
+    private Task task;
+
+    private Label headerLabel = new Label();
+
+    private HBox taskBox = new HBox(10);
+    private Rectangle pri = new Rectangle(10, 80);
+    private CheckBox complete = new CheckBox();
+    private Label nameLabel = new Label();
+    private Label descriptionLabel = new Label();
+    private Label dueDateLabel = new Label();
+    private HBox tagBox = new HBox(20);
+    private ArrayList<HBox> tagNodes = new ArrayList<>();
+
+    public TaskCell(Consumer<Task> onComplete, Consumer<Task> onDelete) {
+        setStyle("-fx-background-color: transparent; -fx-padding: 10 20 10 20;");
+
+        taskBox.setPadding(new Insets(15));
+        taskBox.setStyle("-fx-background-color: #FFFFFF; -fx-background-radius: 10; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.2), 10, 0, 0, 1);");
+
+        complete.setAlignment(Pos.CENTER);
+        VBox check = new VBox(complete);
+        check.setAlignment(Pos.CENTER_LEFT);
+        check.setPadding(new Insets(10,0,0,0));
+
+        complete.setOnAction(event -> {
+            if (complete.isSelected() && task != null)
+                onComplete.accept(task);
+        });
+
+        nameLabel.setFont(Font.font(16));
+        VBox taskDetails = new VBox(nameLabel, descriptionLabel, dueDateLabel);
+
+        tagBox.setPadding(new Insets(10));
+        tagBox.setAlignment(Pos.CENTER_RIGHT);
+
+        Button deleteButton = new Button("Delete");
+        deleteButton.setOnAction(e -> {
+            if (task != null)
+                onDelete.accept(task);
+        });
+
+        HBox actionButtons = new HBox(20, deleteButton);
+        actionButtons.setAlignment(Pos.CENTER_RIGHT);
+
+        HBox.setHgrow(taskDetails, Priority.ALWAYS);
+
+        taskBox.getChildren().addAll(pri, check, taskDetails, tagBox, actionButtons);
+    }
+
+    @Override
+    protected void updateItem(Object item, boolean empty) {
+        super.updateItem(item, empty);
+        task = null;
+        setText(null);
+
+        if (empty || item == null) {
+            setGraphic(null);
+        } else if (item instanceof Header) {
+            Header header = (Header) item;
+            headerLabel.setText(header.text);
+            if (header.size > 0) {
+                headerLabel.setFont(Font.font(header.size));
+                headerLabel.setStyle("-fx-font-weight: bold; -fx-text-fill: #333;");
+            } else {
+                headerLabel.setFont(Font.getDefault());
+                headerLabel.setStyle(null);
+            }
+            setGraphic(headerLabel);
+        } else {
+            task = (Task) item;
+            showTask(task);
+            setGraphic(taskBox);
+        }
+    }
+
+    private void showTask(Task t) {
+        long start = Metrics.start();
+        if (t.getPriority()==Task.Priority.HIGH) {
+            pri.setFill(Color.RED);
+        } else if (t.getPriority()==Task.Priority.MEDIUM) {
+            pri.setFill(Color.YELLOW);
+        } else {
+            pri.setFill(Color.LIGHTGREEN);
+        }
+
+        complete.setSelected(false);
+        nameLabel.setText(t.getName());
+        descriptionLabel.setText(t.getDescription());
+        dueDateLabel.setText("Due: " + t.getDueDate().toString() + ((t.getDueTime() == null) ? "" : " " + t.getDueTime())
+                + ((t.getRecurrence() == null) ? "" : ", repeats " + t.getRecurrence().getFrequency().toString().toLowerCase()));
+
+        long[] tagBits = t.getTagBits();
+        int count = 0;
+        for (int w=0; tagBits != null && w < tagBits.length; w++) {
+            for (long word = tagBits[w]; word != 0; word &= word - 1) {
+                Tag tag = TagManager.getInstance().get(w*64 + Long.numberOfTrailingZeros(word));
+                if (tag == null)
+                    continue;
+                if (tagNodes.size() <= count)
+                    tagNodes.add(new HBox(5, new Circle(5), new Label()));
+                HBox singleTag = tagNodes.get(count++);
+                ((Circle) singleTag.getChildren().get(0)).setFill(tag.getColor());
+                ((Label) singleTag.getChildren().get(1)).setText(tag.getName());
+            }
+        }
+        tagBox.getChildren().setAll(tagNodes.subList(0, count));
+        Metrics.SHOW_TASK.since(start);
+    }
+
+    // Non-task row: a date heading, or a plain message when size is 0
+    public static class Header {
+        private String text;
+        private double size;
+
+        public Header(String text, double size) {
+            this.text = text;
+            this.size = size;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+}
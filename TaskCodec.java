@@ -0,0 +1,528 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Set;
+
+/*
+ * Reads and writes the task CSV row format without going through split, LocalDate.parse or
+ * string concatenation.
+ *
+ * A row is decoded straight from a char buffer: fields are found by scanning for ';', dates
+ * and ids are parsed digit by digit, dates come from a small cache keyed by epoch day, and tag
+ * names are resolved through a cache of the tags already seen, so the only objects a row
+ * allocates are its strings, its tag word and the Task itself. Rows are encoded into a
+ * reusable char buffer that can be handed to a Writer as is.
+ *
+ * ';', ',' (inside tag names), '\', CR and newline are written as \; \, \\ \r \n. A backslash
+ * followed by anything else is read literally, so rows written before escaping existed still
+ * read the same unless they contain one of those pairs.
+ *
+ * A codec keeps state between rows and must only be used by one thread at a time.
+ */
+public class TaskCodec {
+    private static final int DATE_CACHE = 1 << 12;
+    private static final int TAG_CACHE = 1 << 8;
+
+    private TagManager tagManager;
+    private char[] in = new char[256];
+    private char[] out = new char[256];
+    private int outLength;
+    private int[] fieldStart = new int[9];
+    private int[] fieldEnd = new int[9];
+    private boolean[] fieldEscaped = new boolean[9];
+    private LocalDate[] dates = new LocalDate[DATE_CACHE];
+    private Tag[] tags = new Tag[TAG_CACHE];
+    private Set<String> unknownTags;
+
+    public TaskCodec() {
+        this(TagManager.getInstance());
+    }
+
+    public TaskCodec(TagManager tagManager) {
+        this.tagManager = tagManager;
+    }
+
+    // Collect the names of unregistered tags, which decode otherwise drops without a trace
+    public void reportUnknownTags(Set<String> sink) {
+        unknownTags = sink;
+    }
+
+    public Task decode(String line, boolean newId) {
+        if (in.length < line.length())
+            in = new char[Math.max(line.length(), in.length * 2)];
+        line.getChars(0, line.length(), in, 0);
+        return decode(in, 0, line.length(), newId);
+    }
+
+    /*
+     * Decode the row in buf[start, end). Returns null when the row does not have six to nine
+     * fields (the eighth is an optional HH:mm due time, the ninth a Recurrence), and throws
+     * DateTimeParseException or IllegalArgumentException for malformed dates, ids and rules,
+     * like the split-based parser did. With newId false a row without an id gets id 0.
+     * Escaped fields are unescaped in place, so buf may be modified.
+     */
+    public Task decode(char[] buf, int start, int end, boolean newId) {
+        if (!Metrics.ENABLED)
+            return parse(buf, start, end, newId);
+        try {
+            Task t = parse(buf, start, end, newId);
+            if (t == null)
+                Metrics.PARSE_ERRORS.increment();
+            return t;
+        }
+        catch (DateTimeParseException | IllegalArgumentException e)
+        {
+            Metrics.PARSE_ERRORS.increment();
+            throw e;
+        }
+    }
+
+    private Task parse(char[] buf, int start, int end, boolean newId) {
+        int fields = splitFields(buf, start, end);
+        if (fields < 6 || fields > 9)
+            return null;
+
+        String name = text(buf, 0);
+        String desc = isNull(buf, 1) ? null : text(buf, 1);
+        LocalDate due = date(buf, fieldStart[2], fieldEnd[2]);
+        Task.Priority priority = priority(buf, fieldStart[3], fieldEnd[3]);
+        long[] tagBits = isNull(buf, 4) ? null : tagBits(buf, fieldStart[4], fieldEnd[4]);
+        LocalDate added = date(buf, fieldStart[5], fieldEnd[5]);
+
+        long id = (fields >= 7) ? number(buf, fieldStart[6], fieldEnd[6]) : 0;
+        Task t = new Task(id, name, desc, due, priority, tagBits, added);
+        if (fields >= 8 && !isNull(buf, 7))
+            t.setDueTime(time(buf, fieldStart[7], fieldEnd[7]));
+        if (fields == 9)
+            t.setRecurrence(Recurrence.parse(text(buf, 8)));
+        if (newId)
+            t.assignIdIfMissing();
+        return t;
+    }
+
+    // Encode the task into the output buffer, replacing what was there
+    public TaskCodec encode(Task t) {
+        outLength = 0;
+        appendEscaped(t.getName(), false);
+        put(';');
+        if (t.getDescription() == null)
+            appendPlain("null");
+        else
+            appendEscaped(t.getDescription(), false);
+        put(';');
+        appendDate(t.getDueDate());
+        put(';');
+        appendPlain(t.getPriority() == null ? "null" : t.getPriority().toString());
+        put(';');
+
+        long[] bits = t.getTagBits();
+        int written = 0;
+        for (int w=0; bits != null && w < bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                Tag tag = tagManager.get(w*64 + Long.numberOfTrailingZeros(word));
+                if (tag == null)
+                    continue;
+                if (written++ > 0)
+                    put(',');
+                appendEscaped(tag.getName(), true);
+            }
+        }
+        if (written == 0)
+            appendPlain("null");
+        put(';');
+        appendDate(t.getAddedDate());
+        put(';');
+        appendNumber(t.getId());
+        // Rows without a due time or recurrence keep the seven fields older readers expect
+        if (t.getDueTime() != null || t.getRecurrence() != null) {
+            put(';');
+            if (t.getDueTime() == null)
+                appendPlain("null");
+            else
+                appendTime(t.getDueTime());
+        }
+        if (t.getRecurrence() != null) {
+            put(';');
+            appendPlain(t.getRecurrence().toString());
+        }
+        return this;
+    }
+
+    public char[] buffer() { return out; }
+    public int length() { return outLength; }
+
+    public void writeTo(Writer w) throws IOException {
+        w.write(out, 0, outLength);
+    }
+
+    @Override
+    public String toString() {
+        return new String(out, 0, outLength);
+    }
+
+    // Fields of a tag row, unescaped; used for the short tag file where allocation does not matter
+    public static ArrayList<String> fields(String line) {
+        ArrayList<String> list = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i=0;i<line.length();i++) {
+            char c = line.charAt(i);
+            if (c == '\\' && i + 1 < line.length()) {
+                char e = unescape(line.charAt(i + 1));
+                if (e != 0) {
+                    sb.append(e);
+                    i++;
+                    continue;
+                }
+            }
+            if (c == ';') {
+                list.add(sb.toString());
+                sb.setLength(0);
+            } else {
+                sb.append(c);
+            }
+        }
+        list.add(sb.toString());
+        return list;
+    }
+
+    public static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 8);
+        for (int i=0;i<s.length();i++) {
+            char c = s.charAt(i);
+            char e = escapeOf(c, false);
+            if (e != 0)
+                sb.append('\\').append(e);
+            else
+                sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // Records the bounds of each field and returns the field count; escaped ';' does not split
+    private int splitFields(char[] buf, int start, int end) {
+        int count = 0;
+        int fieldFrom = start;
+        boolean escaped = false;
+        for (int i=start;i<=end;i++) {
+            if (i < end && buf[i] == '\\' && i + 1 < end && unescape(buf[i + 1]) != 0) {
+                escaped = true;
+                i++;
+                continue;
+            }
+            if (i == end || buf[i] == ';') {
+                if (count == fieldStart.length)
+                    return count + 1;
+                fieldStart[count] = fieldFrom;
+                fieldEnd[count] = i;
+                fieldEscaped[count] = escaped;
+                count++;
+                fieldFrom = i + 1;
+                escaped = false;
+            }
+        }
+        return count;
+    }
+
+    private boolean isNull(char[] buf, int field) {
+        int s = fieldStart[field];
+        return fieldEnd[field] - s == 4 && buf[s] == 'n' && buf[s+1] == 'u' && buf[s+2] == 'l' && buf[s+3] == 'l';
+    }
+
+    private String text(char[] buf, int field) {
+        int s = fieldStart[field];
+        int e = fieldEnd[field];
+        if (!fieldEscaped[field])
+            return new String(buf, s, e - s);
+
+        // Unescape in place; the field only gets shorter
+        int n = s;
+        for (int i=s;i<e;i++) {
+            char c = buf[i];
+            if (c == '\\' && i + 1 < e && unescape(buf[i + 1]) != 0)
+                c = unescape(buf[++i]);
+            buf[n++] = c;
+        }
+        return new String(buf, s, n - s);
+    }
+
+    // yyyy-MM-dd, validated like LocalDate.parse
+    private LocalDate date(char[] buf, int s, int e) {
+        if (e - s != 10 || buf[s+4] != '-' || buf[s+7] != '-')
+            throw new DateTimeParseException("Bad date", new String(buf, s, e - s), 0);
+        int year = digits(buf, s, s + 4);
+        int month = digits(buf, s + 5, s + 7);
+        int day = digits(buf, s + 8, s + 10);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > monthLength(year, month))
+            throw new DateTimeParseException("Bad date", new String(buf, s, e - s), 0);
+
+        long epochDay = epochDay(year, month, day);
+        int slot = (int) (epochDay & (DATE_CACHE - 1));
+        LocalDate d = dates[slot];
+        if (d == null || d.toEpochDay() != epochDay) {
+            d = LocalDate.ofEpochDay(epochDay);
+            dates[slot] = d;
+        }
+        return d;
+    }
+
+    // HH:mm
+    private LocalTime time(char[] buf, int s, int e) {
+        int hour = (e - s == 5 && buf[s+2] == ':') ? digits(buf, s, s + 2) : -1;
+        int minute = (hour >= 0) ? digits(buf, s + 3, s + 5) : -1;
+        if (hour < 0 || hour > 23 || minute < 0 || minute > 59)
+            throw new DateTimeParseException("Bad time", new String(buf, s, e - s), 0);
+        return LocalTime.of(hour, minute);
+    }
+
+    private static int digits(char[] buf, int s, int e) {
+        int v = 0;
+        for (int i=s;i<e;i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            v = v*10 + digit;
+        }
+        return v;
+    }
+
+    private static int monthLength(int year, int month) {
+        switch (month) {
+            case 2: return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4: case 6: case 9: case 11: return 30;
+            default: return 31;
+        }
+    }
+
+    // Same arithmetic as LocalDate.toEpochDay
+    private static long epochDay(int year, int month, int day) {
+        long y = year;
+        long total = 365 * y;
+        total += (y + 3) / 4 - (y + 99) / 100 + (y + 399) / 400;
+        total += (367 * month - 362) / 12;
+        total += day - 1;
+        if (month > 2) {
+            total--;
+            if (monthLength(year, 2) == 28)
+                total--;
+        }
+        return total - 719528;
+    }
+
+    // Anything that is not HIGH, MEDIUM or null reads as LOW, as in Priority.parse
+    private static Task.Priority priority(char[] buf, int s, int e) {
+        int n = e - s;
+        if (n == 4 && buf[s] == 'n' && buf[s+1] == 'u' && buf[s+2] == 'l' && buf[s+3] == 'l')
+            return null;
+        if (n == 4 && buf[s] == 'H' && buf[s+1] == 'I' && buf[s+2] == 'G' && buf[s+3] == 'H')
+            return Task.Priority.HIGH;
+        if (n == 6 && buf[s] == 'M' && buf[s+1] == 'E' && buf[s+2] == 'D' && buf[s+3] == 'I' && buf[s+4] == 'U' && buf[s+5] == 'M')
+            return Task.Priority.MEDIUM;
+        return Task.Priority.LOW;
+    }
+
+    private static long number(char[] buf, int s, int e) {
+        if (s == e || e - s > 18)
+            throw new NumberFormatException("Bad id: " + new String(buf, s, e - s));
+        long v = 0;
+        for (int i=s;i<e;i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Bad id: " + new String(buf, s, e - s));
+            v = v*10 + digit;
+        }
+        return v;
+    }
+
+    // Comma separated tag names; names that are not registered are dropped
+    private long[] tagBits(char[] buf, int s, int e) {
+        long[] bits = null;
+        int nameFrom = s;
+        boolean escaped = false;
+        for (int i=s;i<=e;i++) {
+            if (i < e && buf[i] == '\\' && i + 1 < e && unescape(buf[i + 1]) != 0) {
+                escaped = true;
+                i++;
+                continue;
+            }
+            if (i < e && buf[i] != ',')
+                continue;
+
+            String name = escaped ? unescaped(buf, nameFrom, i) : null;
+            Tag tag = escaped ? tagManager.find(name) : tag(buf, nameFrom, i);
+            if (tag == null && unknownTags != null && i > nameFrom)
+                unknownTags.add(escaped ? name : new String(buf, nameFrom, i - nameFrom));
+            if (tag != null) {
+                int w = tag.getId() >>> 6;
+                if (bits == null || w >= bits.length) {
+                    long[] grown = new long[w + 1];
+                    if (bits != null)
+                        System.arraycopy(bits, 0, grown, 0, bits.length);
+                    bits = grown;
+                }
+                bits[w] |= 1L << tag.getId();
+            }
+            nameFrom = i + 1;
+            escaped = false;
+        }
+        return (bits == null) ? new long[1] : bits;
+    }
+
+    // Tags found before are matched by their current name, so a renamed or removed tag is looked up again
+    private Tag tag(char[] buf, int s, int e) {
+        int hash = 0;
+        for (int i=s;i<e;i++)
+            hash = 31*hash + Character.toLowerCase(buf[i]);
+        int slot = (hash ^ (hash >>> 16)) & (TAG_CACHE - 1);
+
+        Tag cached = tags[slot];
+        if (cached != null && tagManager.get(cached.getId()) == cached && sameName(cached.getName(), buf, s, e))
+            return cached;
+
+        Tag found = tagManager.find(new String(buf, s, e - s));
+        if (found != null)
+            tags[slot] = found;
+        return found;
+    }
+
+    private static boolean sameName(String name, char[] buf, int s, int e) {
+        if (name.length() != e - s)
+            return false;
+        for (int i=0;i<name.length();i++) {
+            char a = name.charAt(i);
+            char b = buf[s + i];
+            if (a != b && Character.toLowerCase(a) != Character.toLowerCase(b))
+                return false;
+        }
+        return true;
+    }
+
+    private static String unescaped(char[] buf, int s, int e) {
+        StringBuilder sb = new StringBuilder(e - s);
+        for (int i=s;i<e;i++) {
+            char c = buf[i];
+            if (c == '\\' && i + 1 < e && unescape(buf[i + 1]) != 0)
+                c = unescape(buf[++i]);
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    // The character an escape pair stands for, or 0 if the pair is not an escape
+    private static char unescape(char c) {
+        switch (c) {
+            case ';': return ';';
+            case ',': return ',';
+            case '\\': return '\\';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            default: return 0;
+        }
+    }
+
+    private static char escapeOf(char c, boolean inTag) {
+        switch (c) {
+            case ';': return ';';
+            case '\\': return '\\';
+            case '\n': return 'n';
+            case '\r': return 'r';
+            case ',': return inTag ? ',' : 0;
+            default: return 0;
+        }
+    }
+
+    private void put(char c) {
+        if (outLength == out.length)
+            grow(1);
+        out[outLength++] = c;
+    }
+
+    private void grow(int extra) {
+        char[] bigger = new char[Math.max(out.length * 2, outLength + extra)];
+        System.arraycopy(out, 0, bigger, 0, outLength);
+        out = bigger;
+    }
+
+    private void appendPlain(String s) {
+        if (outLength + s.length() > out.length)
+            grow(s.length());
+        s.getChars(0, s.length(), out, outLength);
+        outLength += s.length();
+    }
+
+    private void appendEscaped(String s, boolean inTag) {
+        for (int i=0;i<s.length();i++) {
+            char c = s.charAt(i);
+            char e = escapeOf(c, inTag);
+            if (e != 0) {
+                put('\\');
+                put(e);
+            } else {
+                put(c);
+            }
+        }
+    }
+
+    private void appendDate(LocalDate d) {
+        int year = d.getYear();
+        if (year < 0 || year > 9999) {
+            appendPlain(d.toString());
+            return;
+        }
+        if (outLength + 10 > out.length)
+            grow(10);
+        appendDigits(year, 4);
+        out[outLength++] = '-';
+        appendDigits(d.getMonthValue(), 2);
+        out[outLength++] = '-';
+        appendDigits(d.getDayOfMonth(), 2);
+    }
+
+    private void appendTime(LocalTime t) {
+        if (outLength + 5 > out.length)
+            grow(5);
+        appendDigits(t.getHour(), 2);
+        out[outLength++] = ':';
+        appendDigits(t.getMinute(), 2);
+    }
+
+    private void appendDigits(int v, int width) {
+        for (int i=width-1;i>=0;i--) {
+            out[outLength + i] = (char) ('0' + v % 10);
+            v /= 10;
+        }
+        outLength += width;
+    }
+
+    private void appendNumber(long v) {
+        if (outLength + 20 > out.length)
+            grow(20);
+        if (v < 0) {
+            out[outLength++] = '-';
+            v = -v;
+        }
+        int from = outLength;
+        do {
+            out[outLength++] = (char) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i=from, j=outLength-1; i<j; i++, j--) {
+            char c = out[i];
+            out[i] = out[j];
+            out[j] = c;
+        }
+    }
+
+    public static void main(String[] args) {
+        TaskCodec codec = new TaskCodec();
+        Task t = new Task("Call; then write", "Line one\nLine two; with \\ backslash", LocalDate.of(2024, 2, 29), Task.Priority.HIGH, null);
+        String row = codec.encode(t).toString();
+        System.out.println(row);
+
+        Task back = codec.decode(row, false);
+        System.out.println(back.getName().equals(t.getName()) && back.getDescription().equals(t.getDescription())
+                && back.getDueDate().equals(t.getDueDate()) && back.getId() == t.getId());
+    }
+}
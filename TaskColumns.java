@@ -0,0 +1,286 @@
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * One-off tasks stored as columns of primitives, for TaskMap's columnar backend.
+ *
+ * A row holds the due and added dates as epoch days, the priority rank and tag flags in one
+ * byte, the due minute, the id, the first word of the tag bits and references to the name and
+ * description in a string pool: 35 bytes, against a few hundred for a Task with its strings,
+ * dates, tag word and map entries. The rare tag words past the first are kept in a side map.
+ * The pool holds UTF-8 bytes behind a length prefix, in 64 KB pages, and a direct-mapped table
+ * of recently added strings lets repeated names and descriptions share one copy while the
+ * table itself stays a fixed size.
+ *
+ * Rows are appended in chunks of 4096, one array per field, and never change once written.
+ * Appends are serialized; decode takes no lock, so any thread that got a row number through a
+ * concurrent collection can decode it. Rows of tasks removed since are only counted as dead,
+ * and copy moves the live ones into fresh columns.
+ */
+public class TaskColumns implements TaskRecords {
+    private static final int SHIFT = 12;
+    private static final int CHUNK = 1 << SHIFT;
+    private static final int RANK = 0x07;
+    private static final int TAGGED = 0x08;
+    private static final int WIDE = 0x10;
+    private static final Task.Priority[] PRIORITIES = Task.Priority.values();
+
+    private static class Chunk {
+        int[] due = new int[CHUNK];
+        int[] added = new int[CHUNK];
+        byte[] flags = new byte[CHUNK];
+        short[] dueMinute = new short[CHUNK];
+        long[] id = new long[CHUNK];
+        long[] tags = new long[CHUNK];
+        int[] name = new int[CHUNK];
+        int[] description = new int[CHUNK];
+    }
+
+    private volatile Chunk[] chunks = new Chunk[0];
+    private ConcurrentHashMap<Integer, long[]> wideTags = new ConcurrentHashMap<>();
+    private Strings strings = new Strings();
+    private int rows;
+    private int dead;
+
+    // Appends the task and returns its row number. Recurring tasks are kept as objects by TaskMap
+    public synchronized int append(Task t) {
+        if (t.getRecurrence() != null)
+            throw new IllegalArgumentException("Recurring tasks are not stored in columns");
+        long[] bits = t.getTagBits();
+        int flags = t.priorityRank();
+        if (bits != null)
+            flags |= (bits.length > 1) ? TAGGED | WIDE : TAGGED;
+        int row = add((int) t.getDueDate().toEpochDay(), (int) t.getAddedDate().toEpochDay(), flags,
+                (t.getDueTime() == null) ? -1 : t.dueMinute(), t.getId(), (bits == null || bits.length == 0) ? 0 : bits[0],
+                strings.add(t.getName()), strings.add(t.getDescription()));
+        if (bits != null && bits.length > 1)
+            wideTags.put(row, bits.clone());
+        return row;
+    }
+
+    // Appends a row of other columns without decoding it, and returns its number here
+    public synchronized int copy(TaskColumns from, int row) {
+        Chunk c = from.chunks[row >>> SHIFT];
+        int i = row & (CHUNK - 1);
+        int copied = add(c.due[i], c.added[i], c.flags[i], c.dueMinute[i], c.id[i], c.tags[i],
+                strings.add(from.strings, c.name[i]), strings.add(from.strings, c.description[i]));
+        if ((c.flags[i] & WIDE) != 0)
+            wideTags.put(copied, from.wideTags.get(row));
+        return copied;
+    }
+
+    private int add(int due, int added, int flags, int dueMinute, long id, long tags, int name, int description) {
+        int row = rows;
+        Chunk[] current = chunks;
+        if ((row >>> SHIFT) == current.length) {
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = new Chunk();
+        }
+        Chunk c = current[row >>> SHIFT];
+        int i = row & (CHUNK - 1);
+        c.due[i] = due;
+        c.added[i] = added;
+        c.flags[i] = (byte) flags;
+        c.dueMinute[i] = (short) dueMinute;
+        c.id[i] = id;
+        c.tags[i] = tags;
+        c.name[i] = name;
+        c.description[i] = description;
+        // Published after the row is written
+        chunks = current;
+        rows++;
+        return row;
+    }
+
+    public long id(int row) {
+        return chunks[row >>> SHIFT].id[row & (CHUNK - 1)];
+    }
+
+    // Task.priorityRank of the row, without decoding it
+    public int priorityRank(int row) {
+        return chunks[row >>> SHIFT].flags[row & (CHUNK - 1)] & RANK;
+    }
+
+    public Task decode(int row) {
+        Chunk c = chunks[row >>> SHIFT];
+        int i = row & (CHUNK - 1);
+        int flags = c.flags[i];
+        int rank = flags & RANK;
+        long[] tags = null;
+        if ((flags & WIDE) != 0)
+            tags = wideTags.get(row).clone();
+        else if ((flags & TAGGED) != 0)
+            tags = new long[]{c.tags[i]};
+        Task t = new Task(c.id[i], strings.get(c.name[i]), strings.get(c.description[i]), LocalDate.ofEpochDay(c.due[i]),
+                (rank < PRIORITIES.length) ? PRIORITIES[rank] : null, tags, LocalDate.ofEpochDay(c.added[i]));
+        int minute = c.dueMinute[i];
+        if (minute >= 0)
+            t.setDueTime(LocalTime.of(minute / 60, minute % 60));
+        return t;
+    }
+
+    // Counts rows whose tasks have been removed or replaced
+    public synchronized void release(int n) {
+        dead += n;
+    }
+
+    public synchronized int live() {
+        return rows - dead;
+    }
+
+    public synchronized int dead() {
+        return dead;
+    }
+
+    /*
+     * UTF-8 strings behind a varint length, addressed by page << 16 | offset. A string too long
+     * for a page gets a page of its own, and the current page goes on filling after it.
+     */
+    private static class Strings {
+        private static final int PAGE = 1 << 16;
+        private static final int RECENT = 1 << 16;
+
+        private volatile byte[][] pages = new byte[0][];
+        private int page = -1;
+        private int fill = PAGE;
+        // Reference + 1 of the last string added with each hash, 0 for none
+        private int[] recent = new int[RECENT];
+
+        // Caller holds the columns' lock. -1 stands for null
+        int add(String s) {
+            return (s == null) ? -1 : add(s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int add(Strings from, int ref) {
+            return (ref < 0) ? -1 : add(from.bytes(ref));
+        }
+
+        private int add(byte[] b) {
+            int slot = (Arrays.hashCode(b) * 0x9E3779B9 >>> 16) & (RECENT - 1);
+            int seen = recent[slot] - 1;
+            if (seen >= 0 && holds(seen, b))
+                return seen;
+
+            int need = b.length + 5;
+            byte[][] current = pages;
+            int ref;
+            if (need > PAGE) {
+                current = Arrays.copyOf(current, current.length + 1);
+                current[current.length - 1] = new byte[need];
+                ref = (current.length - 1) << 16;
+                put(current[current.length - 1], 0, b);
+            }
+            else {
+                if (fill + need > PAGE) {
+                    current = Arrays.copyOf(current, current.length + 1);
+                    current[current.length - 1] = new byte[PAGE];
+                    page = current.length - 1;
+                    fill = 0;
+                }
+                ref = (page << 16) | fill;
+                fill = put(current[page], fill, b);
+            }
+            // Published after the bytes are written
+            pages = current;
+            recent[slot] = ref + 1;
+            return ref;
+        }
+
+        private static int put(byte[] page, int at, byte[] b) {
+            int n = b.length;
+            while (n >= 0x80) {
+                page[at++] = (byte) (n | 0x80);
+                n >>>= 7;
+            }
+            page[at++] = (byte) n;
+            System.arraycopy(b, 0, page, at, b.length);
+            return at + b.length;
+        }
+
+        // Start of the string's bytes in its page, with its length in length[0]
+        private int start(int ref, int[] length) {
+            byte[] p = pages[ref >>> 16];
+            int at = ref & (PAGE - 1);
+            int n = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = p[at++];
+                n |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    break;
+            }
+            length[0] = n;
+            return at;
+        }
+
+        String get(int ref) {
+            if (ref < 0)
+                return null;
+            int[] n = new int[1];
+            int at = start(ref, n);
+            return new String(pages[ref >>> 16], at, n[0], StandardCharsets.UTF_8);
+        }
+
+        private byte[] bytes(int ref) {
+            int[] n = new int[1];
+            int at = start(ref, n);
+            return Arrays.copyOfRange(pages[ref >>> 16], at, at + n[0]);
+        }
+
+        private boolean holds(int ref, byte[] b) {
+            int[] n = new int[1];
+            int at = start(ref, n);
+            return n[0] == b.length && Arrays.equals(pages[ref >>> 16], at, at + n[0], b, 0, b.length);
+        }
+    }
+
+    /*
+     * Round-trips tasks with every field set and unset through the columns and a copy of them,
+     * and prints what a row costs for a million of them: java TaskColumns
+     */
+    public static void main(String[] args) {
+        ArrayList<Task> tasks = new ArrayList<>();
+        LocalDate day = LocalDate.of(2030, 1, 1);
+        for (int i=0;i<1000;i++) {
+            Task.Priority p = (i % 4 == 3) ? null : PRIORITIES[i % 4];
+            long[] bits = (i % 3 == 0) ? null : (i % 3 == 1) ? new long[]{i} : new long[]{i, 1L << (i % 64)};
+            String description = (i % 2 == 0) ? null : (i % 5 == 0) ? "x".repeat(70000 + i) : "Détails " + (i % 10);
+            Task t = new Task(i + 1, "Task " + i, description, day.plusDays(i % 30), p, bits, day.minusDays(i));
+            if (i % 7 == 0)
+                t.setDueTime(LocalTime.of(i % 24, i % 60));
+            tasks.add(t);
+        }
+        TaskColumns columns = new TaskColumns();
+        TaskColumns copy = new TaskColumns();
+        boolean ok = true;
+        for (Task t : tasks) {
+            int row = columns.append(t);
+            ok &= same(t, columns.decode(row)) && columns.id(row) == t.getId() && columns.priorityRank(row) == t.priorityRank();
+            ok &= same(t, copy.decode(copy.copy(columns, row)));
+        }
+        System.out.println("Round trip of " + tasks.size() + " tasks and their copies: " + (ok ? "passed" : "FAILED"));
+
+        int count = 1000000;
+        Runtime rt = Runtime.getRuntime();
+        System.gc();
+        long before = rt.totalMemory() - rt.freeMemory();
+        TaskColumns big = new TaskColumns();
+        for (int i=0;i<count;i++)
+            big.append(new Task(i + 1, "Task " + i, (i % 4 == 0) ? null : "Details for task " + i, day.plusDays(i % 1000),
+                    PRIORITIES[i % 3], new long[]{i & 0xFF}, day));
+        System.gc();
+        long used = rt.totalMemory() - rt.freeMemory() - before;
+        System.out.println(count + " rows: " + used / 1048576 + " MB, " + used / count + " bytes per task with its strings");
+        if (!ok || big.live() != count)
+            System.exit(1);
+    }
+
+    private static boolean same(Task a, Task b) {
+        return a.getId() == b.getId() && a.getName().equals(b.getName()) && String.valueOf(a.getDescription()).equals(String.valueOf(b.getDescription()))
+                && a.getDueDate().equals(b.getDueDate()) && a.getAddedDate().equals(b.getAddedDate()) && a.getPriority() == b.getPriority()
+                && String.valueOf(a.getDueTime()).equals(String.valueOf(b.getDueTime())) && Arrays.equals(a.getTagBits(), b.getTagBits());
+    }
+}
@@ -0,0 +1,70 @@
+import java.time.LocalDate;
+import java.util.Arrays;
+
+// Tag and date conditions checked against a task's tag bits one 64-bit word at a time
+public class TaskFilter {
+    private long[] required = new long[0];
+    private long[] excluded = new long[0];
+    private LocalDate from;
+    private LocalDate to;
+
+    public TaskFilter require(Tag tag) {
+        required = set(required, tag.getId());
+        return this;
+    }
+
+    public TaskFilter exclude(Tag tag) {
+        excluded = set(excluded, tag.getId());
+        return this;
+    }
+
+    // Either bound may be null to leave that side open
+    public TaskFilter between(LocalDate from, LocalDate to) {
+        this.from = from;
+        this.to = to;
+        return this;
+    }
+
+    public LocalDate getFrom() { return from; }
+    public LocalDate getTo() { return to; }
+
+    // Ids of the required tags, used to pick the shortest posting list
+    public int[] requiredIds() {
+        int count = 0;
+        for (long word : required)
+            count += Long.bitCount(word);
+
+        int[] ids = new int[count];
+        int i = 0;
+        for (int w=0;w<required.length;w++)
+            for (long word = required[w]; word != 0; word &= word - 1)
+                ids[i++] = w*64 + Long.numberOfTrailingZeros(word);
+        return ids;
+    }
+
+    public boolean matches(Task t) {
+        if (from != null && t.getDueDate().isBefore(from)) return false;
+        if (to != null && t.getDueDate().isAfter(to)) return false;
+
+        long[] bits = t.getTagBits();
+        int n = (bits==null) ? 0 : bits.length;
+        for (int w=0;w<required.length;w++) {
+            long word = (w < n) ? bits[w] : 0;
+            if ((word & required[w]) != required[w])
+                return false;
+        }
+        for (int w=0;w<excluded.length && w<n;w++) {
+            if ((bits[w] & excluded[w]) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static long[] set(long[] words, int id) {
+        int w = id >>> 6;
+        if (w >= words.length)
+            words = Arrays.copyOf(words, w + 1);
+        words[w] |= 1L << id;
+        return words;
+    }
+}
@@ -1,88 +1,1375 @@
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.DoubleConsumer;
+import java.util.function.LongConsumer;
 
 import javafx.scene.paint.Color;
-import javafx.util.converter.LocalDateStringConverter;
 
 import java.io.*;
 
-public class TaskMap {
-    private HashMap<LocalDate, ArrayList<Task>> taskMap;
-    private static final String TASK_FILE = "data/tasks.csv";
+/*
+ * Tasks by due date, safe to read and change from any number of threads.
+ *
+ * Consistency contract:
+ *  - addTask, removeTask and updateTask are linearizable. When several threads add (or remove)
+ *    the same task on the same date, exactly one of them succeeds and says so in its result.
+ *    addAll applies a whole batch with the other writers stopped.
+ *  - Writers of one date serialize on that date's lock stripe while other dates go ahead in
+ *    parallel. The journal record is written and the listeners are called under the stripe,
+ *    so both see the changes of a date in the order they took effect.
+ *  - A published bucket is never modified; writers replace it with a copy. getTasks(date)
+ *    therefore returns an immutable snapshot of the day, in Task.BY_PRIORITY order.
+ *  - Range reads (getTasks(from, to), overdue, filter, next/previousNonEmptyDay) are weakly
+ *    consistent: each day is a snapshot, but different days may be seen at different times.
+ *    getMap() and compaction briefly stop all writers and see a single point in time.
+ *  - Listeners run on the writing thread. They must not wait for other writers and must not
+ *    call getMap, saveTasks or saveTasksToCSV.
+ *  - A task must not be edited while it is in the map, except through updateTask.
+ *
+ * A recurring task is filed once, under its first due date, and its occurrences are expanded
+ * only when a range is asked for: getOccurrences walks the one-off tasks of the range plus the
+ * series index, so a month costs what falls in that month. Finishing an occurrence replaces the
+ * series with a copy whose Recurrence records it, under the stripe of the series' date.
+ *
+ * The store is kept in month partitions (see TaskPartitions) and opened lazily. Days are
+ * indexed from the manifest, a partition's records stay in its file mapping, made the first
+ * time one of its days is needed, and a day is decoded into a bucket (thawed) under its stripe
+ * the first time it is read or changed. Days thawed for reading keep their records and sit in
+ * an LRU cache of about cacheLimit tasks, losing the bucket again when they fall out of it; a
+ * changed day stays decoded, since its records in the file are stale, until a save writes it
+ * and it joins the cache too. Days with a recurring task are thawed when
+ * the store is opened, because every range needs the series. Range reads wider than the cache
+ * decode the days they cross without keeping them. Startup cost and memory therefore follow
+ * what is looked at, not the history.
+ *
+ * Every change marks its month dirty, and a save rewrites the dirty months only, so its cost
+ * follows what changed since the last one. A store still in the single tasks.bin of earlier
+ * versions is opened the same way, with every month dirty, and is split at the first save.
+ *
+ * The columnar backend (-Dtodolist.columnar=true) keeps the records of every day without a
+ * recurring task in TaskColumns instead, whether they came from the store, the CSV file or later
+ * changes. A change is made to the day's rows and drops its bucket, which the next read decodes
+ * again, so buckets are only ever a cache of what was read and memory stays under 100 bytes a
+ * task however much has changed. Rows left dead by removals are copied out at the next
+ * compaction once they outnumber the live ones.
+ */
+public class TaskMap implements Saveable {
+    private static final int STRIPES = 64;
+    private static final int COMPACT_THRESHOLD = 500;
+    private static final int CACHE_TASKS = 50000;
+
+    // A day kept as records: their numbers and where they are, the store file or the columns
+    private static class Raw {
+        TaskRecords records;
+        int[] rows;
+
+        Raw(TaskRecords records, int[] rows) {
+            this.records = records;
+            this.rows = rows;
+        }
+    }
+
+    private ConcurrentSkipListMap<LocalDate, Map<Long, Task>> taskMap = new ConcurrentSkipListMap<>();
+    private ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+    // Writers share the read side; getMap and compaction take the write side to see one point in time
+    private ReentrantReadWriteLock mapLock = new ReentrantReadWriteLock();
+    private Semaphore compaction = new Semaphore(1);
+    private Journal journal;
+    private CopyOnWriteArrayList<TaskMapListener> listeners = new CopyOnWriteArrayList<>();
+    private ConcurrentHashMap<Integer, Set<Task>> postings = new ConcurrentHashMap<>();
+    // Recurring tasks by id, as filed in their buckets
+    private ConcurrentHashMap<Long, Task> series = new ConcurrentHashMap<>();
+    // Days kept as records. One that is also in taskMap was thawed for reading and is unchanged
+    private ConcurrentSkipListMap<LocalDate, Raw> cold = new ConcurrentSkipListMap<>();
+    // The columnar backend's rows, or null when changed days are kept as buckets
+    private volatile TaskColumns columns;
+    // Days thawed for reading, least recently read first, with their number of tasks
+    private LinkedHashMap<LocalDate, Integer> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private volatile int cached;
+    private volatile int cacheLimit = CACHE_TASKS;
+    private UrgencyIndex urgency = new UrgencyIndex(this::getTasks);
+    private AtomicInteger size = new AtomicInteger();
+    private TaskPartitions partitions;
+    // Months changed since the last save
+    private Set<YearMonth> dirty = ConcurrentHashMap.newKeySet();
+    private String taskFile;
+    private String csvFile;
+
+    private volatile boolean loaded = false;
+    private volatile boolean compactInBackground;
+    private ArrayList<String> pendingRecords;
+    // A progressive load's steps: partitions to index plus journal records to replay
+    private volatile DoubleConsumer loadProgress;
+    private int loadSteps;
+    private int loadDone;
 
     public TaskMap() {
-        taskMap = new HashMap<>();
-        loadTasksFromCSV();
+        this(true);
+    }
+
+    // With loadNow false nothing is read until loadRange and finishLoading are called
+    public TaskMap(boolean loadNow) {
+        this("data", loadNow);
+    }
+
+    // Keeps the tasks partitions, tasks.csv and tasks.journal in the given directory
+    public TaskMap(String dataDir, boolean loadNow) {
+        this(dataDir, loadNow, Boolean.getBoolean("todolist.columnar"));
+    }
+
+    // With columnar true, tasks are kept in TaskColumns and decoded when they are read
+    public TaskMap(String dataDir, boolean loadNow, boolean columnar) {
+        if (columnar)
+            columns = new TaskColumns();
+        for (int i=0;i<STRIPES;i++)
+            stripes[i] = new ReentrantLock();
+        partitions = new TaskPartitions(dataDir + "/tasks");
+        taskFile = dataDir + "/tasks.bin";
+        csvFile = dataDir + "/tasks.csv";
+        journal = new Journal(dataDir + "/tasks.journal");
+        if (loadNow) {
+            loadTasks();
+            replayJournal(journal.readRecords(), false);
+            loaded = true;
+        }
+    }
+
+    // Open the partitions, falling back to the single file of earlier versions and then to
+    // importing the CSV file
+    private void loadTasks() {
+        if (partitions.exists()) {
+            try {
+                long start = Metrics.start();
+                partitions.read();
+                int rows = 0;
+                ArrayList<TaskPartitions.Partition> all = partitions.partitions();
+                loadSteps += all.size();
+                for (TaskPartitions.Partition p : all) {
+                    open(p);
+                    rows += p.size();
+                    loadStep();
+                }
+                // Filing the recurring days marked their months, which have not changed
+                dirty.clear();
+                loaded(rows, start);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: " + e.getMessage());
+            }
+        }
+        else if (new File(taskFile).exists()) {
+            try {
+                long start = Metrics.start();
+                TaskStore.Records store = TaskStore.Records.open(taskFile);
+                open(store);
+                loaded(store.size(), start);
+            }
+            catch (IOException e)
+            {
+                System.out.println("Error: " + e.getMessage());
+            }
+        }
+        else if (new File(csvFile).exists())
+            loadTasksFromCSV(csvFile);
+    }
+
+    public void loadTasksFromCSV(String file) {
+        try {
+            long start = Metrics.start();
+            ArrayList<Task> tasks = TaskStore.importCSV(file);
+            insertAll(tasks, false);
+            loaded(tasks.size(), start);
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Index a single-file store by date. Its months all go to partitions at the next save
+    private void open(TaskStore.Records store) {
+        if (!store.hasIds() && columns == null) {
+            ArrayList<Task> tasks = new ArrayList<>(store.size());
+            for (int i=0;i<store.size();i++)
+                tasks.add(store.decode(i));
+            insertAll(tasks, false);
+            return;
+        }
+        Task.reserveIds(store.maxId());
+        for (Map.Entry<LocalDate, int[]> e : store.byDay().entrySet()) {
+            boolean[] ranks = new boolean[Task.Priority.values().length + 1];
+            boolean recurring = false;
+            for (int i : e.getValue()) {
+                ranks[store.priorityRank(i)] = true;
+                recurring |= store.isRecurring(i);
+            }
+            dirty.add(YearMonth.from(e.getKey()));
+            index(e.getKey(), new Raw(store, e.getValue()), ranks, recurring);
+        }
+    }
+
+    // Index a partition from the manifest. Its file is only mapped now when it has a recurring
+    // task, to find which days do, or when an older manifest does not list its largest id
+    private void open(TaskPartitions.Partition p) throws IOException {
+        TaskStore.Records store = p.isRecurring() ? p.records() : null;
+        Task.reserveIds(p.maxId());
+        for (LocalDate date : p.days()) {
+            int[] rows = p.rows(date);
+            boolean recurring = false;
+            for (int k=0; store!=null && k<rows.length; k++)
+                recurring |= store.isRecurring(rows[k]);
+            index(date, new Raw(p, rows), p.ranks(date), recurring);
+        }
+    }
+
+    // Files a day of records. Only a day with a recurring task is decoded, and the columnar
+    // backend copies the others into its columns
+    private void index(LocalDate date, Raw raw, boolean[] ranks, boolean recurring) {
+        if (recurring) {
+            insertAll(decode(raw), false);
+            return;
+        }
+        if (columns != null) {
+            Raw copied = new Raw(columns, new int[raw.rows.length]);
+            for (int k=0;k<raw.rows.length;k++)
+                copied.rows[k] = columns.append(raw.records.decode(raw.rows[k]));
+            raw = copied;
+        }
+        cold.put(date, raw);
+        urgency.mark(date, ranks);
+        size.addAndGet(raw.rows.length);
+    }
+
+    // Called on the loading thread with the fraction of loadRange and finishLoading done, at
+    // most once per percent
+    public void setLoadProgress(DoubleConsumer progress) {
+        loadProgress = progress;
+    }
+
+    private void loadStep() {
+        DoubleConsumer progress = loadProgress;
+        loadDone++;
+        if (progress != null && loadDone * 100L / loadSteps != (loadDone - 1) * 100L / loadSteps)
+            progress.accept((double) loadDone / loadSteps);
     }
 
-    private void loadTasksFromCSV() {
+    // First phase of a progressive load: open the store and apply the journal records of [from, to]
+    public void loadRange(LocalDate from, LocalDate to) {
+        ArrayList<String> records = journal.readRecords();
+        loadSteps = records.size();
+        loadTasks();
+        ArrayList<String> inRange = new ArrayList<>();
+        pendingRecords = new ArrayList<>();
+        for (String record : records) {
+            LocalDate date = recordDate(record);
+            if (date != null && !date.isBefore(from) && !date.isAfter(to))
+                inRange.add(record);
+            else
+                pendingRecords.add(record);
+        }
+        replayJournal(inRange, false);
+    }
+
+    // Apply the journal records held back by loadRange. Listeners hear of them, and the map may
+    // be read and changed meanwhile
+    public void finishLoading() {
+        if (pendingRecords != null)
+            replayJournal(pendingRecords, true);
+        pendingRecords = null;
+        loaded = true;
+    }
+
+    // Time spent opening the store, and the rows it held
+    private static void loaded(int rows, long start) {
+        Metrics.LOAD.since(start);
+        Metrics.LOAD_ROWS.add(rows);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    private LocalDate recordDate(String record) {
+        if (record.startsWith("+;")) {
+            Task t = Task.fromCSV(record.substring(2));
+            return (t==null) ? null : t.getDueDate();
+        }
+        String[] parts = record.split(";");
+        return (parts.length == 3) ? LocalDate.parse(parts[1]) : null;
+    }
+
+    // Re-apply the changes recorded since the last snapshot
+    private void replayJournal(ArrayList<String> records, boolean notify) {
+        for (String record : records) {
+            loadStep();
+            if (record.length() < 2) continue;
+
+            if (record.charAt(0)=='+') {
+                Task t = Task.fromCSV(record.substring(2));
+                if (t!=null)
+                    apply(t.getDueDate(), t, true, false, notify);
+            }
+            else if (record.charAt(0)=='-') {
+                String[] parts = record.split(";");
+                if (parts.length != 3) continue;
+                LocalDate date = LocalDate.parse(parts[1]);
+                Task t = find(date, Long.parseLong(parts[2]));
+                if (t!=null)
+                    apply(date, t, false, false, notify);
+            }
+        }
+    }
+
+    // Write the months changed since the last save into their partitions and compact the journal
+    public void saveTasks() {
+        if (!loaded) {
+            System.out.println("Error: tasks are still loading");
+            return;
+        }
+        // Waits for a compaction still being written in the background
+        compaction.acquireUninterruptibly();
         try {
-            BufferedReader br = new BufferedReader(new FileReader(TASK_FILE));
-            String line;
-
-            while (true) {
-                line = br.readLine();
-                if (line==null) break;
-                
-                Task newTask = Task.fromCSV(line);
-                this.addTask(newTask.getDueDate(),newTask);
-            }
-            br.close();
-        } 
-        catch (IOException e) 
+            capture().write();
+        }
+        catch (IOException e)
         {
             System.out.println("Error: " + e.getMessage());
         }
     }
 
+    // Export every task as CSV rows
     public void saveTasksToCSV() {
         try {
-            BufferedWriter bw = new BufferedWriter(new FileWriter(TASK_FILE, false));
+            ArrayList<Task> tasks = allTasks();
+            long start = Metrics.start();
+            TaskStore.exportCSV(csvFile, tasks);
+            Metrics.SAVE.since(start);
+            Metrics.SAVE_ROWS.add(tasks.size());
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    // Every task at a single point in time, in date order
+    private ArrayList<Task> allTasks() {
+        mapLock.writeLock().lock();
+        try {
+            ArrayList<Task> list = new ArrayList<>(size.get());
+            for (LocalDate date : days(LocalDate.MIN, LocalDate.MAX))
+                list.addAll(day(date, false));
+            return list;
+        }
+        finally
+        {
+            mapLock.writeLock().unlock();
+        }
+    }
 
-            for (LocalDate date : taskMap.keySet()) {
-                for (Task task : taskMap.get(date)) {
-                    bw.write(task.toString());
-                    bw.newLine();
+    /*
+     * Collect the days of the dirty months and rotate the journal with the writers stopped, so
+     * every record in the new journal comes after the snapshot. The caller holds the compaction
+     * permit; the returned write gives it back once the partitions and manifest are written and
+     * the rotated journal dropped. A month whose write fails is dirty again for the next save.
+     */
+    private Saveable.Write capture() {
+        TreeMap<YearMonth, TreeMap<LocalDate, Collection<Task>>> months = new TreeMap<>();
+        // The changed days' buckets as written
+        HashMap<LocalDate, Map<Long, Task>> changed = new HashMap<>();
+        mapLock.writeLock().lock();
+        try {
+            if (columns != null && columns.dead() > columns.live())
+                compactColumns();
+            for (YearMonth month : dirty) {
+                TreeMap<LocalDate, Collection<Task>> days = new TreeMap<>();
+                for (LocalDate date : days(month.atDay(1), month.atEndOfMonth())) {
+                    Map<Long, Task> tasks = taskMap.get(date);
+                    days.put(date, (tasks != null) ? tasks.values() : lazy(cold.get(date)));
+                    if (tasks != null && !cold.containsKey(date))
+                        changed.put(date, tasks);
                 }
+                months.put(month, days);
             }
-            bw.close();
-        } 
-        catch (IOException e) 
+            dirty.clear();
+            journal.rotate();
+        }
+        finally
         {
-            System.out.println("Error: " + e.getMessage());
+            mapLock.writeLock().unlock();
+        }
+        return () -> {
+            try {
+                long start = Metrics.start();
+                ArrayList<TaskPartitions.Partition> written = new ArrayList<>();
+                ArrayList<YearMonth> emptied = new ArrayList<>();
+                int rows = 0;
+                try {
+                    for (Map.Entry<YearMonth, TreeMap<LocalDate, Collection<Task>>> e : months.entrySet()) {
+                        if (e.getValue().isEmpty()) {
+                            emptied.add(e.getKey());
+                            continue;
+                        }
+                        TaskPartitions.Partition p = partitions.write(e.getKey(), e.getValue());
+                        written.add(p);
+                        rows += p.size();
+                    }
+                    partitions.commit(written, emptied);
+                }
+                catch (IOException e)
+                {
+                    dirty.addAll(months.keySet());
+                    throw e;
+                }
+                release(changed, written);
+                // Every month of a single-file store was dirty, so the partitions now hold all of it
+                new File(taskFile).delete();
+                journal.dropRotated();
+                Metrics.SAVE.since(start);
+                Metrics.SAVE_ROWS.add(rows);
+            }
+            finally
+            {
+                compaction.release();
+            }
+        };
+    }
+
+    /*
+     * Files the days a save wrote, and that have not changed since, as records of their new
+     * partition again. Their buckets join the read cache, so memory taken by changes is given
+     * back as the cache trims, as it is for days that were only read. Days with a recurring
+     * task stay thawed, and the columnar backend keeps changed days as rows already.
+     */
+    private void release(HashMap<LocalDate, Map<Long, Task>> saved, ArrayList<TaskPartitions.Partition> written) {
+        if (columns != null)
+            return;
+        mapLock.readLock().lock();
+        try {
+            for (TaskPartitions.Partition p : written) {
+                // Mapped now, since the buckets in the cache are not decoded from it and a later
+                // save may delete the file; a mapping outlives its file
+                try {
+                    p.records();
+                }
+                catch (IOException e)
+                {
+                    continue;
+                }
+                for (LocalDate date : p.days()) {
+                    Map<Long, Task> tasks = saved.get(date);
+                    if (tasks == null || hasSeries(tasks))
+                        continue;
+                    ReentrantLock stripe = stripe(date);
+                    stripe.lock();
+                    try {
+                        if (taskMap.get(date) != tasks || cold.containsKey(date))
+                            continue;
+                        cold.put(date, new Raw(p, p.rows(date)));
+                        synchronized (cache) {
+                            cache.put(date, tasks.size());
+                            cached += tasks.size();
+                        }
+                    }
+                    finally
+                    {
+                        stripe.unlock();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            mapLock.readLock().unlock();
+        }
+        trim();
+    }
+
+    private static boolean hasSeries(Map<Long, Task> tasks) {
+        for (Task t : tasks.values())
+            if (t.getRecurrence() != null)
+                return true;
+        return false;
+    }
+
+    // A raw day's tasks, decoded as they are iterated. Its records stay readable in the old
+    // mapping or columns whatever happens to the day meanwhile
+    private Collection<Task> lazy(Raw raw) {
+        return new AbstractCollection<Task>() {
+            public int size() {
+                return raw.rows.length;
+            }
+
+            public Iterator<Task> iterator() {
+                return decode(raw).iterator();
+            }
+        };
+    }
+
+    // Caller holds the write lock. Copies the live rows into fresh columns, leaving the dead ones behind
+    private void compactColumns() {
+        TaskColumns fresh = new TaskColumns();
+        for (Map.Entry<LocalDate, Raw> e : cold.entrySet()) {
+            int[] rows = e.getValue().rows;
+            int[] moved = new int[rows.length];
+            for (int k=0;k<rows.length;k++)
+                moved[k] = fresh.copy(columns, rows[k]);
+            // Lock-free readers holding the old Raw still decode it from the old columns
+            cold.put(e.getKey(), new Raw(fresh, moved));
+        }
+        columns = fresh;
+    }
+
+    // Persist the session. A save only rewrites the months that changed, so the journal is
+    // folded into the partitions whenever it has records, and a store opened from tasks.bin or
+    // tasks.csv, whose months are all dirty, is split into partitions on its first exit
+    public void save() {
+        if (loaded && (journal.size() > 0 || !dirty.isEmpty() || new File(taskFile).exists()))
+            saveTasks();
+        else
+            journal.close();
+    }
+
+    // Compaction needs the whole history in memory, so it waits until loading has finished
+    private void maybeCompact() {
+        if (!compactInBackground && loaded && journal.size() >= COMPACT_THRESHOLD)
+            saveTasks();
+    }
+
+    // Leave compaction to an AutosaveService, which calls snapshot when the map changes
+    public void setCompactInBackground(boolean background) {
+        compactInBackground = background;
+    }
+
+    // Compaction off the calling thread; skipped while the previous one is still being written
+    public Saveable.Write snapshot() {
+        if (!loaded || journal.size() < COMPACT_THRESHOLD || !compaction.tryAcquire())
+            return null;
+        return capture();
+    }
+
+    public void addListener(TaskMapListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TaskMapListener listener) {
+        listeners.remove(listener);
+    }
+
+    // False when the task is already filed under that date
+    public boolean addTask(LocalDate date, Task task) {
+        if (!apply(date, task, true, true, true))
+            return false;
+        maybeCompact();
+        return true;
+    }
+
+    // False when the task is not filed under that date, e.g. because another thread removed it first.
+    // For an occurrence of a recurring task, finishes that occurrence only
+    public boolean removeTask(LocalDate date, Task task) {
+        if (task.getSeries() != null)
+            return removeOccurrence(task);
+        if (!apply(date, task, false, true, true))
+            return false;
+        maybeCompact();
+        return true;
+    }
+
+    // One add or remove under the date's stripe, with its journal record and events
+    private boolean apply(LocalDate date, Task task, boolean add, boolean record, boolean notify) {
+        ReentrantLock stripe = stripe(date);
+        mapLock.readLock().lock();
+        stripe.lock();
+        try {
+            Task changed = add ? (insert(date, task) ? task : null) : delete(date, task.getId());
+            if (changed == null)
+                return false;
+            if (record) {
+                journal.append(add ? "+;" + task.toString() : "-;" + date.toString() + ";" + task.getId());
+                (add ? Metrics.ADDS : Metrics.REMOVES).increment();
+            }
+            if (notify) {
+                for (TaskMapListener l : listeners) {
+                    if (add)
+                        l.taskAdded(date, changed);
+                    else
+                        l.taskRemoved(date, changed);
+                }
+            }
+            return true;
+        }
+        finally
+        {
+            stripe.unlock();
+            mapLock.readLock().unlock();
+        }
+    }
+
+    // Replace the task with the same id filed under oldDate by a changed copy of it. Listeners
+    // see both versions, so the copy must be a new object rather than the old one edited in place
+    public boolean updateTask(LocalDate oldDate, Task task) {
+        // Stripes are always taken in index order, so two moves in opposite directions cannot deadlock
+        int a = stripeIndex(oldDate);
+        int b = stripeIndex(task.getDueDate());
+        ReentrantLock first = stripes[Math.min(a, b)];
+        ReentrantLock second = stripes[Math.max(a, b)];
+        mapLock.readLock().lock();
+        first.lock();
+        second.lock();
+        try {
+            Task old = delete(oldDate, task.getId());
+            if (old == null)
+                return false;
+            insert(task.getDueDate(), task);
+            Metrics.UPDATES.increment();
+            journal.append("-;" + oldDate.toString() + ";" + task.getId());
+            journal.append("+;" + task.toString());
+            for (TaskMapListener l : listeners)
+                l.taskUpdated(oldDate, old, task);
+        }
+        finally
+        {
+            second.unlock();
+            first.unlock();
+            mapLock.readLock().unlock();
+        }
+        maybeCompact();
+        return true;
+    }
+
+    /*
+     * Marks one occurrence done by replacing its series with a copy that records it, or removes
+     * the series when that was its last occurrence. False when the occurrence is not pending,
+     * e.g. because another thread finished it first.
+     */
+    private boolean removeOccurrence(Task occurrence) {
+        long id = occurrence.getId();
+        LocalDate date = occurrence.getDueDate();
+        while (true) {
+            Task template = series.get(id);
+            if (template == null)
+                return false;
+            LocalDate anchor = template.getDueDate();
+            ReentrantLock stripe = stripe(anchor);
+            mapLock.readLock().lock();
+            stripe.lock();
+            try {
+                // Moved or replaced since it was looked up
+                if (find(anchor, id) != template)
+                    continue;
+                Recurrence r = template.getRecurrence();
+                if (!r.isPending(anchor, date))
+                    return false;
+                Recurrence rest = r.complete(anchor, date);
+                delete(anchor, id);
+                Metrics.REMOVES.increment();
+                journal.append("-;" + anchor.toString() + ";" + id);
+                if (rest == null) {
+                    for (TaskMapListener l : listeners)
+                        l.taskRemoved(anchor, template);
+                }
+                else {
+                    Task next = template.withRecurrence(rest);
+                    insert(anchor, next);
+                    journal.append("+;" + next.toString());
+                    for (TaskMapListener l : listeners)
+                        l.taskUpdated(anchor, template, next);
+                }
+            }
+            finally
+            {
+                stripe.unlock();
+                mapLock.readLock().unlock();
+            }
+            maybeCompact();
+            return true;
+        }
+    }
+
+    private static int stripeIndex(LocalDate date) {
+        return (int) (date.toEpochDay() & (STRIPES - 1));
+    }
+
+    private ReentrantLock stripe(LocalDate date) {
+        return stripes[stripeIndex(date)];
+    }
+
+    // Caller holds the date's stripe. The day's bucket, thawed if it was still raw
+    private Map<Long, Task> thaw(LocalDate date) {
+        Map<Long, Task> tasks = taskMap.get(date);
+        Raw raw;
+        if (tasks != null || (raw = cold.get(date)) == null)
+            return tasks;
+        tasks = bucket(decode(raw));
+        taskMap.put(date, tasks);
+        for (Task t : tasks.values())
+            updatePostings(t, true);
+        return tasks;
+    }
+
+    // Caller holds the date's stripe. The day is about to change as a bucket, so its records go
+    // stale and it leaves the cache for good
+    private Map<Long, Task> edit(LocalDate date) {
+        dirty.add(YearMonth.from(date));
+        Map<Long, Task> tasks = thaw(date);
+        // Removed after the bucket is published, so a lock-free reader always finds one of them
+        Raw raw = cold.remove(date);
+        if (raw != null && columns != null)
+            columns.release(raw.rows.length);
+        forget(date);
+        return tasks;
+    }
+
+    private void forget(LocalDate date) {
+        synchronized (cache) {
+            Integer n = cache.remove(date);
+            if (n != null)
+                cached -= n;
         }
     }
 
-    public void addTask(LocalDate date, Task task) {
-        taskMap.putIfAbsent(date, new ArrayList<>());
+    /*
+     * The day's bucket for a read, thawed and cached when it was raw. Never waits: when the
+     * stripe is busy, the raw records are decoded for this read only.
+     */
+    private Map<Long, Task> read(LocalDate date) {
+        Map<Long, Task> tasks = taskMap.get(date);
+        if (tasks != null || cold.isEmpty()) {
+            if (tasks != null && cached > 0) {
+                synchronized (cache) {
+                    cache.get(date);
+                }
+            }
+            return tasks;
+        }
+        if (!mapLock.readLock().tryLock())
+            return peek(date);
+        try {
+            ReentrantLock stripe = stripe(date);
+            if (!stripe.tryLock())
+                return peek(date);
+            try {
+                tasks = taskMap.get(date);
+                if (tasks == null && (tasks = thaw(date)) != null) {
+                    synchronized (cache) {
+                        cache.put(date, tasks.size());
+                        cached += tasks.size();
+                    }
+                }
+            }
+            finally
+            {
+                stripe.unlock();
+            }
+        }
+        finally
+        {
+            mapLock.readLock().unlock();
+        }
+        trim();
+        return tasks;
+    }
+
+    // The day's bucket without thawing it, decoding its raw records when it has not been thawed
+    private Map<Long, Task> peek(LocalDate date) {
+        Map<Long, Task> tasks = taskMap.get(date);
+        if (tasks != null)
+            return tasks;
+        Raw raw = cold.get(date);
+        return (raw != null) ? bucket(decode(raw)) : taskMap.get(date);
+    }
+
+    // The day's tasks for a range read: through the cache when the range fits in it, peeked otherwise
+    private Collection<Task> day(LocalDate date, boolean keep) {
+        Map<Long, Task> tasks = keep ? read(date) : peek(date);
+        return (tasks == null) ? Collections.emptyList() : tasks.values();
+    }
+
+    // Whether the raw days of [from, to] fit in half the cache
+    private boolean fits(LocalDate from, LocalDate to) {
+        int n = 0;
+        for (Raw raw : cold.subMap(from, true, to, true).values())
+            if ((n += raw.rows.length) > cacheLimit / 2)
+                return false;
+        return true;
+    }
+
+    // Days with tasks in [from, to], thawed or not, in order. Added one by one: TreeSet's bulk
+    // copy of a sorted set trusts its size, which a concurrent map's views do not keep
+    private TreeSet<LocalDate> days(LocalDate from, LocalDate to) {
+        TreeSet<LocalDate> days = new TreeSet<>();
+        for (LocalDate date : taskMap.subMap(from, true, to, true).keySet())
+            days.add(date);
+        for (LocalDate date : cold.subMap(from, true, to, true).keySet())
+            days.add(date);
+        return days;
+    }
+
+    /*
+     * Drops the buckets of the least recently read days until the cache is under its limit.
+     * A day whose stripe is busy is skipped, so this never waits on a writer.
+     */
+    private void trim() {
+        if (cached <= cacheLimit)
+            return;
+        ArrayList<LocalDate> victims = new ArrayList<>();
+        synchronized (cache) {
+            int excess = cached - cacheLimit;
+            for (Map.Entry<LocalDate, Integer> e : cache.entrySet()) {
+                if (excess <= 0)
+                    break;
+                victims.add(e.getKey());
+                excess -= e.getValue();
+            }
+        }
+        for (LocalDate date : victims)
+            evict(date);
+    }
 
-        for (Task t: taskMap.get(date))
-        {   
-            if (t.Equals(task))
+    private void evict(LocalDate date) {
+        if (!mapLock.readLock().tryLock())
+            return;
+        try {
+            ReentrantLock stripe = stripe(date);
+            if (!stripe.tryLock())
                 return;
+            try {
+                synchronized (cache) {
+                    Integer n = cache.remove(date);
+                    // Changed, or evicted by another reader, since it was picked
+                    if (n == null)
+                        return;
+                    cached -= n;
+                }
+                // The records stay in cold, so readers find the day there once the bucket is gone
+                Map<Long, Task> tasks = taskMap.remove(date);
+                for (Task t : tasks.values())
+                    updatePostings(t, false);
+                Metrics.EVICTED.increment();
+            }
+            finally
+            {
+                stripe.unlock();
+            }
+        }
+        finally
+        {
+            mapLock.readLock().unlock();
+        }
+    }
+
+    private ArrayList<Task> decode(Raw raw) {
+        ArrayList<Task> tasks = new ArrayList<>(raw.rows.length);
+        for (int i : raw.rows)
+            tasks.add(raw.records.decode(i));
+        Metrics.DECODED.add(raw.rows.length);
+        return tasks;
+    }
+
+    // Caller holds the date's stripe. Whether the day is kept in the columns: in the columnar
+    // backend, any day but one holding a bucket pinned by a recurring task
+    private boolean columnar(LocalDate date) {
+        return columns != null && (cold.containsKey(date) || !taskMap.containsKey(date));
+    }
+
+    // Caller holds the date's stripe or the write lock. Files one-off tasks in the day's rows and
+    // returns those that were not there yet
+    private ArrayList<Task> addRows(LocalDate date, Collection<Task> tasks) {
+        Raw old = cold.get(date);
+        LinkedHashMap<Long, Task> fresh = new LinkedHashMap<>(capacity(tasks.size()));
+        for (Task t : tasks)
+            fresh.putIfAbsent(t.getId(), t);
+        if (old != null) {
+            // Sorted ids of the new tasks, so the day's rows are checked without boxing theirs
+            long[] ids = new long[fresh.size()];
+            int n = 0;
+            for (long id : fresh.keySet())
+                ids[n++] = id;
+            Arrays.sort(ids);
+            for (int row : old.rows) {
+                int k = Arrays.binarySearch(ids, columns.id(row));
+                if (k >= 0)
+                    fresh.remove(ids[k]);
+            }
         }
-        taskMap.get(date).add(task);
+        ArrayList<Task> added = new ArrayList<>(fresh.values());
+        if (added.isEmpty())
+            return added;
+        int n = (old == null) ? 0 : old.rows.length;
+        int[] rows = (old == null) ? new int[added.size()] : Arrays.copyOf(old.rows, n + added.size());
+        for (int k=0;k<added.size();k++)
+            rows[n + k] = columns.append(added.get(k));
+        replace(date, rows);
+        size.addAndGet(added.size());
+        return added;
     }
 
-    public void removeTask(LocalDate date, Task task) {
-        ArrayList<Task> tasks = taskMap.get(date);
-        tasks.remove(task);
+    // Caller holds the date's stripe. Removes the task from the day's rows; null when it is not there
+    private Task removeRow(LocalDate date, long id) {
+        Raw old = cold.get(date);
+        if (old == null)
+            return null;
+        for (int k=0;k<old.rows.length;k++) {
+            if (columns.id(old.rows[k]) != id)
+                continue;
+            Task removed = columns.decode(old.rows[k]);
+            int[] rows = new int[old.rows.length - 1];
+            System.arraycopy(old.rows, 0, rows, 0, k);
+            System.arraycopy(old.rows, k + 1, rows, k, rows.length - k);
+            replace(date, rows);
+            columns.release(1);
+            size.decrementAndGet();
+            return removed;
+        }
+        return null;
+    }
+
+    // Publishes the day's new rows and drops its bucket, which is out of date; the next read decodes it again
+    private void replace(LocalDate date, int[] rows) {
+        dirty.add(YearMonth.from(date));
+        if (rows.length == 0)
+            cold.remove(date);
+        else
+            cold.put(date, new Raw(columns, rows));
+        Map<Long, Task> stale = taskMap.remove(date);
+        if (stale != null) {
+            for (Task t : stale.values())
+                updatePostings(t, false);
+            forget(date);
+        }
+        boolean[] ranks = new boolean[Task.Priority.values().length + 1];
+        for (int row : rows)
+            ranks[columns.priorityRank(row)] = true;
+        urgency.mark(date, ranks);
+    }
+
+    // An immutable bucket of the tasks in Task.BY_PRIORITY order
+    private static Map<Long, Task> bucket(ArrayList<Task> tasks) {
+        tasks.sort(Task.BY_PRIORITY);
+        LinkedHashMap<Long, Task> bucket = new LinkedHashMap<>(capacity(tasks.size()));
+        for (Task t : tasks)
+            bucket.put(t.getId(), t);
+        return Collections.unmodifiableMap(bucket);
+    }
+
+    // Tasks thawed for reading to keep before the least recently read days are dropped again
+    public void setCacheLimit(int tasks) {
+        cacheLimit = tasks;
+        trim();
+    }
+
+    // Room for n entries without rehashing
+    private static int capacity(int n) {
+        return (int) (n / 0.75f) + 1;
+    }
+
+    // Caller holds the date's stripe. The bucket is replaced by a copy, never changed in place
+    private boolean insert(LocalDate date, Task task) {
+        if (task.getRecurrence() == null && columnar(date))
+            return !addRows(date, Collections.singletonList(task)).isEmpty();
+        Map<Long, Task> old = edit(date);
+        if (old != null && old.containsKey(task.getId()))
+            return false;
+        // The copy is made in Task.BY_PRIORITY order with the new task in its place
+        LinkedHashMap<Long, Task> tasks = new LinkedHashMap<>(capacity((old == null) ? 1 : old.size() + 1));
+        boolean placed = false;
+        if (old != null) {
+            for (Task t : old.values()) {
+                if (!placed && Task.BY_PRIORITY.compare(task, t) < 0) {
+                    tasks.put(task.getId(), task);
+                    placed = true;
+                }
+                tasks.put(t.getId(), t);
+            }
+        }
+        if (!placed)
+            tasks.put(task.getId(), task);
+        taskMap.put(date, Collections.unmodifiableMap(tasks));
+        urgency.update(date, tasks);
+        size.incrementAndGet();
+        updatePostings(task, true);
+        return true;
+    }
+
+    // Caller holds the date's stripe. Returns the removed task, or null when it was not there
+    private Task delete(LocalDate date, long id) {
+        if (columnar(date))
+            return removeRow(date, id);
+        Map<Long, Task> old = edit(date);
+        if (old == null || !old.containsKey(id))
+            return null;
+        LinkedHashMap<Long, Task> tasks = new LinkedHashMap<>(old);
+        Task removed = tasks.remove(id);
         if (tasks.isEmpty())
             taskMap.remove(date);
+        else
+            taskMap.put(date, Collections.unmodifiableMap(tasks));
+        urgency.update(date, tasks.isEmpty() ? null : tasks);
+        size.decrementAndGet();
+        updatePostings(removed, false);
+        return removed;
+    }
+
+    // Bulk load with one bucket copy per date instead of one per task
+    private void insertAll(Collection<Task> tasks, boolean notify) {
+        for (Map.Entry<LocalDate, ArrayList<Task>> e : byDate(tasks).entrySet()) {
+            LocalDate date = e.getKey();
+            ReentrantLock stripe = stripe(date);
+            mapLock.readLock().lock();
+            stripe.lock();
+            try {
+                ArrayList<Task> added = merge(date, e.getValue());
+                if (notify)
+                    for (Task t : added)
+                        for (TaskMapListener l : listeners)
+                            l.taskAdded(date, t);
+            }
+            finally
+            {
+                stripe.unlock();
+                mapLock.readLock().unlock();
+            }
+        }
+    }
+
+    /*
+     * Batched addTask for imports. The batch is applied with the other writers stopped, takes
+     * one bucket copy per date and one journal flush, and is journaled like single adds. Tasks
+     * already filed under their date are skipped; the number added is returned. Compaction is
+     * left to the caller, which saves once after its last batch.
+     */
+    public int addAll(Collection<Task> tasks) {
+        HashMap<LocalDate, ArrayList<Task>> byDate = byDate(tasks);
+        mapLock.writeLock().lock();
+        try {
+            ArrayList<String> records = new ArrayList<>();
+            ArrayList<Task> added = new ArrayList<>();
+            for (Map.Entry<LocalDate, ArrayList<Task>> e : byDate.entrySet())
+                added.addAll(merge(e.getKey(), e.getValue()));
+            for (Task t : added)
+                records.add("+;" + t.toString());
+            journal.appendAll(records);
+            Metrics.ADDS.add(added.size());
+            for (Task t : added)
+                for (TaskMapListener l : listeners)
+                    l.taskAdded(t.getDueDate(), t);
+            return added.size();
+        }
+        finally
+        {
+            mapLock.writeLock().unlock();
+        }
+    }
+
+    private static HashMap<LocalDate, ArrayList<Task>> byDate(Collection<Task> tasks) {
+        HashMap<LocalDate, ArrayList<Task>> byDate = new HashMap<>();
+        for (Task t : tasks)
+            byDate.computeIfAbsent(t.getDueDate(), d -> new ArrayList<>()).add(t);
+        return byDate;
+    }
+
+    // Caller holds the date's stripe or the map's write lock. Returns the tasks that were not there yet
+    private ArrayList<Task> merge(LocalDate date, ArrayList<Task> tasks) {
+        if (columnar(date)) {
+            boolean recurring = false;
+            for (Task t : tasks)
+                recurring |= t.getRecurrence() != null;
+            if (!recurring)
+                return addRows(date, tasks);
+        }
+        Map<Long, Task> old = edit(date);
+        HashSet<Long> ids = new HashSet<>();
+        ArrayList<Task> added = new ArrayList<>();
+        for (Task t : tasks)
+            if ((old == null || !old.containsKey(t.getId())) && ids.add(t.getId()))
+                added.add(t);
+        if (added.isEmpty())
+            return added;
+        // File the day in Task.BY_PRIORITY order: the old bucket already is, so only the new
+        // tasks are sorted and the two runs are merged
+        added.sort(Task.BY_PRIORITY);
+        LinkedHashMap<Long, Task> bucket = new LinkedHashMap<>(capacity(added.size() + ((old == null) ? 0 : old.size())));
+        int next = 0;
+        if (old != null) {
+            for (Task t : old.values()) {
+                while (next < added.size() && Task.BY_PRIORITY.compare(added.get(next), t) < 0) {
+                    bucket.put(added.get(next).getId(), added.get(next));
+                    next++;
+                }
+                bucket.put(t.getId(), t);
+            }
+        }
+        for (; next < added.size(); next++)
+            bucket.put(added.get(next).getId(), added.get(next));
+        taskMap.put(date, Collections.unmodifiableMap(bucket));
+        urgency.update(date, bucket);
+        size.addAndGet(added.size());
+        for (Task t : added)
+            updatePostings(t, true);
+        return added;
+    }
+
+    // Keep the per-tag posting lists and the series index in step with the buckets
+    private void updatePostings(Task task, boolean add) {
+        if (task.getRecurrence() != null) {
+            if (add)
+                series.put(task.getId(), task);
+            else
+                series.remove(task.getId());
+        }
+        long[] bits = task.getTagBits();
+        for (int w=0; bits!=null && w<bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                int tagId = w*64 + Long.numberOfTrailingZeros(word);
+                if (add)
+                    postings.computeIfAbsent(tagId, id -> ConcurrentHashMap.newKeySet()).add(task);
+                else if (postings.containsKey(tagId))
+                    postings.get(tagId).remove(task);
+            }
+        }
+    }
+
+    // Tasks matching the filter in date order. Walks the shortest required tag's posting list
+    // when that is smaller than the date range, and the date range otherwise. Postings only
+    // cover thawed days, so a range with raw days is always walked. A recurring task matches
+    // as its first pending occurrence in the range, never as the series itself
+    public ArrayList<Task> filter(TaskFilter f) {
+        ArrayList<Task> list = new ArrayList<>();
+        LocalDate from = (f.getFrom() == null) ? LocalDate.MIN : f.getFrom();
+        LocalDate to = (f.getTo() == null) ? LocalDate.MAX : f.getTo();
+        if (from.isAfter(to))
+            return list;
+        NavigableMap<LocalDate, Map<Long, Task>> range = taskMap.subMap(from, true, to, true);
+
+        Set<Task> shortest = null;
+        for (int tagId : f.requiredIds()) {
+            Set<Task> posting = postings.get(tagId);
+            if (posting == null || posting.isEmpty())
+                return list;
+            if (shortest == null || posting.size() < shortest.size())
+                shortest = posting;
+        }
+
+        boolean raw = !cold.subMap(from, true, to, true).isEmpty();
+        if (!raw && shortest != null && shortest.size() < countUpTo(range, shortest.size())) {
+            for (Task t : shortest)
+                if (t.getRecurrence() == null && f.matches(t))
+                    list.add(t);
+            list.sort(Comparator.comparing(Task::getDueDate).thenComparingLong(Task::getId));
+        } else {
+            boolean keep = fits(from, to);
+            for (LocalDate date : days(from, to))
+                for (Task t : day(date, keep))
+                    if (t.getRecurrence() == null && f.matches(t))
+                        list.add(t);
+        }
+        int oneOff = list.size();
+        for (Task t : series.values()) {
+            Task next = t.nextOccurrence(from);
+            if (next != null && f.matches(next))
+                list.add(next);
+        }
+        // Stable, so each day keeps its order with the occurrences after its one-off tasks
+        if (list.size() > oneOff)
+            list.sort(Comparator.comparing(Task::getDueDate));
+        return list;
+    }
+
+    private static int countUpTo(NavigableMap<LocalDate, Map<Long, Task>> range, int limit) {
+        int count = 0;
+        for (Map<Long, Task> tasks : range.values()) {
+            count += tasks.size();
+            if (count > limit)
+                break;
+        }
+        return count;
+    }
+
+    // Calls the action with the id of every task filed, series included, without decoding the
+    // raw days. Weakly consistent, like the range reads; a day thawed meanwhile may be seen twice
+    public void forEachId(LongConsumer action) {
+        for (Map<Long, Task> tasks : taskMap.values())
+            for (long id : tasks.keySet())
+                action.accept(id);
+        for (Map.Entry<LocalDate, Raw> e : cold.entrySet()) {
+            if (taskMap.containsKey(e.getKey()))
+                continue;
+            Raw raw = e.getValue();
+            for (int row : raw.rows)
+                action.accept(raw.records.id(row));
+        }
+    }
+
+    // The task with the given id filed under the date, or null
+    public Task find(LocalDate date, long id) {
+        Map<Long, Task> tasks = read(date);
+        return (tasks==null) ? null : tasks.get(id);
     }
-    public ArrayList<Task> getTasks(LocalDate date) {
-        return taskMap.get(date);
+
+    public boolean contains(LocalDate date, Task task) {
+        Map<Long, Task> tasks = read(date);
+        return tasks!=null && tasks.containsKey(task.getId());
+    }
+
+    // Number of tasks in the map
+    public int size() {
+        return size.get();
+    }
+
+    // Immutable snapshot of the day, or null when it has no tasks
+    public Collection<Task> getTasks(LocalDate date) {
+        Map<Long, Task> tasks = read(date);
+        return (tasks==null) ? null : tasks.values();
+    }
+
+    // All tasks due between from and to (both inclusive), in date order
+    public ArrayList<Task> getTasks(LocalDate from, LocalDate to) {
+        ArrayList<Task> list = new ArrayList<>();
+        if (from.isAfter(to))
+            return list;
+        boolean keep = fits(from, to);
+        for (LocalDate date : days(from, to))
+            list.addAll(day(date, keep));
+        return list;
+    }
+
+    /*
+     * What is due between from and to (both inclusive) in date order: the one-off tasks filed
+     * there and the pending occurrences of every recurring task. Occurrences are expanded for
+     * the range only; see Task.getSeries.
+     */
+    public ArrayList<Task> getOccurrences(LocalDate from, LocalDate to) {
+        ArrayList<Task> list = new ArrayList<>();
+        if (from.isAfter(to))
+            return list;
+        boolean keep = fits(from, to);
+        for (LocalDate date : days(from, to))
+            for (Task t : day(date, keep))
+                if (t.getRecurrence() == null)
+                    list.add(t);
+        if (series.isEmpty())
+            return list;
+        for (Task t : series.values())
+            for (LocalDate d : t.getRecurrence().between(t.getDueDate(), from, to))
+                list.add(t.occurrence(d));
+        list.sort(Comparator.comparing(Task::getDueDate).thenComparing(Task.BY_PRIORITY));
+        return list;
+    }
+
+    public ArrayList<Task> getOccurrences(LocalDate date) {
+        return getOccurrences(date, date);
+    }
+
+    /*
+     * The limit most urgent tasks: those due before today first, then by priority, due date and
+     * time. Recurring tasks take part with their first pending occurrence. Costs O(limit + log n)
+     * through the UrgencyIndex, however many tasks there are.
+     */
+    public ArrayList<Task> nextUp(LocalDate today, int limit) {
+        return urgency.next(today, limit, series.values());
+    }
+
+    // The pending occurrence or one-off task with the given id due on the date, or null
+    public Task findOccurrence(LocalDate date, long id) {
+        Task t = series.get(id);
+        if (t == null)
+            return find(date, id);
+        return t.getRecurrence().isPending(t.getDueDate(), date) ? t.occurrence(date) : null;
+    }
+
+    // First date after the given one with a one-off task or a pending occurrence, or null
+    public LocalDate nextDueDay(LocalDate date) {
+        // Raw days never hold a recurring task
+        LocalDate next = cold.higherKey(date);
+        for (Map.Entry<LocalDate, Map<Long, Task>> e = taskMap.higherEntry(date); e != null && (next == null || e.getKey().isBefore(next));
+                e = taskMap.higherEntry(e.getKey()))
+            for (Task t : e.getValue().values())
+                if (t.getRecurrence() == null)
+                    next = e.getKey();
+        for (Task t : series.values()) {
+            LocalDate d = t.getRecurrence().next(t.getDueDate(), date.plusDays(1));
+            if (d != null && (next == null || d.isBefore(next)))
+                next = d;
+        }
+        return next;
+    }
+
+    // The recurring task with the given id as filed, or null
+    public Task findSeries(long id) {
+        return series.get(id);
+    }
+
+    // Every recurring task as filed, under its first due date however long ago that was
+    public Collection<Task> getSeries() {
+        return Collections.unmodifiableCollection(series.values());
+    }
+
+    // First date after the given one that has any task, or null
+    public LocalDate nextNonEmptyDay(LocalDate date) {
+        LocalDate thawed = taskMap.higherKey(date);
+        LocalDate raw = cold.higherKey(date);
+        return (thawed == null || (raw != null && raw.isBefore(thawed))) ? raw : thawed;
+    }
+
+    // Last date before the given one that has any task, or null
+    public LocalDate previousNonEmptyDay(LocalDate date) {
+        LocalDate thawed = taskMap.lowerKey(date);
+        LocalDate raw = cold.lowerKey(date);
+        return (thawed == null || (raw != null && raw.isAfter(thawed))) ? raw : thawed;
+    }
+
+    // All tasks due strictly before the given date, oldest first
+    public ArrayList<Task> overdue(LocalDate before) {
+        ArrayList<Task> list = new ArrayList<>();
+        LocalDate to = before.minusDays(1);
+        boolean keep = fits(LocalDate.MIN, to);
+        for (LocalDate date : days(LocalDate.MIN, to))
+            list.addAll(day(date, keep));
+        return list;
     }
 
     public void displayAllTasks() {
-        for (LocalDate date : taskMap.keySet()) {
-            System.out.println("Tasks for " + date + ": " + taskMap.get(date));
+        for (LocalDate date : days(LocalDate.MIN, LocalDate.MAX)) {
+            System.out.println("Tasks for " + date + ": " + day(date, false));
         }
     }
 
-    public HashMap<LocalDate, ArrayList<Task>> getMap(){
-        return taskMap;
+    // The whole map at a single point in time. Buckets are immutable, so only the index is copied
+    public NavigableMap<LocalDate, Collection<Task>> getMap(){
+        TreeMap<LocalDate, Collection<Task>> copy = new TreeMap<>();
+        mapLock.writeLock().lock();
+        try {
+            for (LocalDate date : days(LocalDate.MIN, LocalDate.MAX))
+                copy.put(date, day(date, false));
+        }
+        finally
+        {
+            mapLock.writeLock().unlock();
+        }
+        return Collections.unmodifiableNavigableMap(copy);
     }
 
     public static void main(String[] args) {
@@ -93,7 +1380,7 @@ public class TaskMap {
         ArrayList<Tag> tags1 = new ArrayList<>();
         tags1.add(new Tag("Work", Color.BLUE));
         tags1.add(new Tag("Important", Color.RED));
-       
+
         Task task1 = new Task("Complete Project", "Finish project today", LocalDate.now(), Task.Priority.HIGH, tags1, LocalDate.of(2024,10,22));
         Task task2 = new Task("Grocery Shopping", null, LocalDate.of(2024, 10, 22), Task.Priority.MEDIUM, null);
 
@@ -103,8 +1390,8 @@ public class TaskMap {
         // Display all tasks
         taskMap.displayAllTasks();
         System.out.println();
-        // Save tasks to CSV
-        taskMap.saveTasksToCSV();
+        // Save tasks to the store
+        taskMap.saveTasks();
 
         // Now loading tasks from the CSV to check if everything works
         TaskMap loadedTaskMap = new TaskMap();
@@ -114,9 +1401,16 @@ public class TaskMap {
         loadedTaskMap.removeTask(task1.getDueDate(), task1);
         Task task3 = new Task("Study", null, LocalDate.of(2024,10,30), null, null);
         loadedTaskMap.addTask(task3.getDueDate(), task3);
+        loadedTaskMap.saveTasks();
         loadedTaskMap.saveTasksToCSV();
 
         TaskMap newLoadedTaskMap = new TaskMap();
         newLoadedTaskMap.displayAllTasks();
+        System.out.println();
+
+        // Filter by tags: Work but not Personal
+        TagManager tags = TagManager.getInstance();
+        TaskFilter filter = new TaskFilter().require(tags.find("Work")).exclude(tags.find("Personal"));
+        System.out.println("Work but not Personal: " + newLoadedTaskMap.filter(filter));
     }
-}
\ No newline at end of file
+}
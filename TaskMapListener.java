@@ -0,0 +1,14 @@
+import java.time.LocalDate;
+
+// Receives every change made to a TaskMap after it has been loaded
+public interface TaskMapListener {
+    void taskAdded(LocalDate date, Task task);
+
+    void taskRemoved(LocalDate date, Task task);
+
+    // The task as it was filed under oldDate has been replaced by task, which shares its id
+    default void taskUpdated(LocalDate oldDate, Task oldTask, Task task) {
+        taskRemoved(oldDate, oldTask);
+        taskAdded(task.getDueDate(), task);
+    }
+}
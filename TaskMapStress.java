@@ -0,0 +1,256 @@
+import java.io.File;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Stress test for the concurrent TaskMap, run with: java TaskMapStress [threads]
+ *
+ *  1. Races: all threads add the same task at once, then remove it at once. Exactly one add
+ *     and exactly one remove may succeed in every round.
+ *  2. Mixed: random adds and removes over a small pool of tasks, so most operations collide.
+ *     For every task the successful adds minus the successful removes must be 0 or 1 and
+ *     agree with contains(), and size() must equal the number of tasks left. A reader takes
+ *     snapshots meanwhile, and the journal compacts several times along the way.
+ *  3. Reload: a new TaskMap over the same directory must hold exactly the same tasks.
+ *  4. Lazy: a store reopened with a cache of a few days is read day by day, by id and by
+ *     range from several threads while others change days of their own, so days are thawed
+ *     and evicted under the readers. Every read must see the day's tasks as stored.
+ *
+ * Every phase runs against the object backend and then the columnar one. Works in a temporary
+ * directory and exits with status 1 on the first failed check.
+ */
+public class TaskMapStress {
+    private static final int ROUNDS = 2000;
+    private static final int POOL = 400;
+    private static final int DAYS = 20;
+    private static final int OPS_PER_THREAD = 50000;
+    private static final int LAZY_DAYS = 200;
+    private static final int LAZY_PER_DAY = 100;
+    private static final int LAZY_CACHE = 500;
+
+    private static boolean columnar;
+
+    public static void main(String[] args) throws Exception {
+        int threads = (args.length > 0) ? Integer.parseInt(args[0]) : Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        File dir = TempDir.create("taskmap-stress");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (boolean c : new boolean[]{false, true}) {
+                columnar = c;
+                System.out.println(columnar ? "Columnar backend" : "Object backend");
+                File backend = new File(dir, columnar ? "columnar" : "objects");
+                backend.mkdirs();
+                TaskMap map = open(backend);
+                races(map, pool, threads);
+                mixed(map, pool, threads);
+                reload(map, backend);
+                lazy(pool, threads, new File(backend, "lazy"));
+            }
+            System.out.println("All checks passed with " + threads + " threads");
+        }
+        finally
+        {
+            pool.shutdownNow();
+            TempDir.delete(dir);
+        }
+    }
+
+    private static void races(TaskMap map, ExecutorService pool, int threads) throws Exception {
+        LocalDate date = LocalDate.of(2030, 1, 1);
+        CyclicBarrier barrier = new CyclicBarrier(threads);
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger removed = new AtomicInteger();
+        Task[] tasks = new Task[ROUNDS];
+        for (int i=0;i<ROUNDS;i++)
+            tasks[i] = new Task("race " + i, null, date, null, null);
+
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t=0;t<threads;t++) {
+            futures.add(pool.submit(() -> {
+                for (int i=0;i<ROUNDS;i++) {
+                    barrier.await();
+                    if (map.addTask(date, tasks[i]))
+                        added.incrementAndGet();
+                    barrier.await();
+                    if (map.removeTask(date, tasks[i]))
+                        removed.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures)
+            f.get();
+
+        check(added.get() == ROUNDS, "races: " + added.get() + " successful adds in " + ROUNDS + " rounds");
+        check(removed.get() == ROUNDS, "races: " + removed.get() + " successful removes in " + ROUNDS + " rounds");
+        check(map.size() == 0, "races: size is " + map.size() + " after every task was removed");
+        System.out.println("Races: " + ROUNDS + " rounds, one winner each");
+    }
+
+    private static void mixed(TaskMap map, ExecutorService pool, int threads) throws Exception {
+        LocalDate first = LocalDate.of(2031, 1, 1);
+        Task[] tasks = new Task[POOL];
+        AtomicInteger[] adds = new AtomicInteger[POOL];
+        AtomicInteger[] removes = new AtomicInteger[POOL];
+        for (int i=0;i<POOL;i++) {
+            tasks[i] = new Task("mixed " + i, null, first.plusDays(i % DAYS), null, null);
+            adds[i] = new AtomicInteger();
+            removes[i] = new AtomicInteger();
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger snapshots = new AtomicInteger();
+        Future<?> reader = pool.submit(() -> {
+            while (!done.get()) {
+                NavigableMap<LocalDate, Collection<Task>> snapshot = map.getMap();
+                for (Map.Entry<LocalDate, Collection<Task>> e : snapshot.entrySet()) {
+                    check(!e.getValue().isEmpty(), "mixed: empty bucket in a snapshot");
+                    for (Task t : e.getValue())
+                        check(t.getDueDate().equals(e.getKey()), "mixed: task filed under the wrong date");
+                }
+                map.getTasks(first, first.plusDays(DAYS));
+                snapshots.incrementAndGet();
+            }
+            return null;
+        });
+
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t=0;t<threads-1;t++) {
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n=0;n<OPS_PER_THREAD;n++) {
+                    int i = random.nextInt(POOL);
+                    Task task = tasks[i];
+                    if (random.nextBoolean()) {
+                        if (map.addTask(task.getDueDate(), task))
+                            adds[i].incrementAndGet();
+                    }
+                    else if (map.removeTask(task.getDueDate(), task))
+                        removes[i].incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures)
+            f.get();
+        done.set(true);
+        reader.get();
+
+        int present = 0;
+        long operations = 0;
+        for (int i=0;i<POOL;i++) {
+            int balance = adds[i].get() - removes[i].get();
+            check(balance == 0 || balance == 1, "mixed: task " + i + " added " + adds[i] + " and removed " + removes[i] + " times");
+            check(map.contains(tasks[i].getDueDate(), tasks[i]) == (balance == 1), "mixed: contains() disagrees for task " + i);
+            present += balance;
+            operations += adds[i].get() + removes[i].get();
+        }
+        check(map.size() == present, "mixed: size is " + map.size() + " but " + present + " tasks are present");
+        System.out.println("Mixed: " + operations + " successful changes, " + present + " tasks left, " + snapshots.get() + " snapshots read");
+    }
+
+    // The journal and the compacted store must give back exactly the final state
+    private static void reload(TaskMap map, File dir) {
+        map.save();
+        TaskMap reloaded = open(dir);
+        NavigableMap<LocalDate, Collection<Task>> expected = map.getMap();
+        NavigableMap<LocalDate, Collection<Task>> actual = reloaded.getMap();
+        check(expected.keySet().equals(actual.keySet()), "reload: dates differ");
+        for (LocalDate date : expected.keySet()) {
+            ArrayList<Long> a = new ArrayList<>();
+            ArrayList<Long> b = new ArrayList<>();
+            for (Task t : expected.get(date))
+                a.add(t.getId());
+            for (Task t : actual.get(date))
+                b.add(t.getId());
+            a.sort(null);
+            b.sort(null);
+            check(a.equals(b), "reload: tasks differ on " + date);
+        }
+        check(reloaded.size() == map.size(), "reload: size is " + reloaded.size() + " instead of " + map.size());
+        System.out.println("Reload: " + reloaded.size() + " tasks match");
+    }
+
+    private static void lazy(ExecutorService pool, int threads, File dir) throws Exception {
+        dir.mkdirs();
+        LocalDate first = LocalDate.of(2032, 1, 1);
+        ArrayList<Task> stored = new ArrayList<>();
+        for (int d=0;d<LAZY_DAYS;d++)
+            for (int i=0;i<LAZY_PER_DAY;i++)
+                stored.add(new Task("lazy " + d + "/" + i, null, first.plusDays(d), Task.Priority.values()[i % 3], null));
+        TaskMap writer = open(dir);
+        writer.addAll(stored);
+        writer.saveTasks();
+
+        TaskMap map = open(dir);
+        map.setCacheLimit(LAZY_CACHE);
+        check(map.size() == stored.size(), "lazy: size is " + map.size() + " after reopening " + stored.size() + " tasks");
+
+        // Writers keep to the days after the stored ones, so the stored days never change
+        LocalDate changed = first.plusDays(LAZY_DAYS);
+        Task[] extra = new Task[POOL];
+        for (int i=0;i<POOL;i++)
+            extra[i] = new Task("extra " + i, null, changed.plusDays(i % DAYS), null, null);
+
+        AtomicInteger reads = new AtomicInteger();
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (int t=0;t<threads;t++) {
+            boolean reader = t % 2 == 0;
+            futures.add(pool.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n=0;n<OPS_PER_THREAD/10;n++) {
+                    if (!reader) {
+                        Task task = extra[random.nextInt(POOL)];
+                        if (random.nextBoolean())
+                            map.addTask(task.getDueDate(), task);
+                        else
+                            map.removeTask(task.getDueDate(), task);
+                        continue;
+                    }
+                    Task task = stored.get(random.nextInt(stored.size()));
+                    LocalDate date = task.getDueDate();
+                    Collection<Task> day = map.getTasks(date);
+                    check(day != null && day.size() == LAZY_PER_DAY, "lazy: " + date + " read with " + ((day == null) ? 0 : day.size()) + " tasks");
+                    Task found = map.find(date, task.getId());
+                    check(found != null && found.getName().equals(task.getName()), "lazy: " + task.getName() + " not found by id");
+                    if (n % 50 == 0) {
+                        LocalDate to = date.plusDays(random.nextInt(10));
+                        if (!to.isBefore(changed))
+                            to = changed.minusDays(1);
+                        int count = map.getTasks(date, to).size();
+                        int days = (int) (to.toEpochDay() - date.toEpochDay() + 1);
+                        check(count == days * LAZY_PER_DAY, "lazy: " + count + " tasks in " + days + " days from " + date);
+                    }
+                    reads.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures)
+            f.get();
+
+        reload(map, dir);
+        System.out.println("Lazy: " + reads.get() + " reads over " + LAZY_DAYS + " days through a cache of " + LAZY_CACHE + " tasks");
+    }
+
+    private static TaskMap open(File dir) {
+        return new TaskMap(dir.getPath(), true, columnar);
+    }
+
+    private static void check(boolean ok, String message) {
+        if (!ok) {
+            System.out.println("FAILED " + message);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/*
+ * The task store split by due month: one TaskStore file per month in data/tasks, and a
+ * manifest naming them.
+ *
+ * A partition's records are written in date order, so a day is a run of records. The manifest
+ * has a line per partition with its month, file, whether it holds a recurring task, its largest
+ * task id and, for every day, the day of the month, its first record, its number of records and
+ * the priorities present, as a mask of Task.priorityRank bits:
+ *
+ *   2026-10;2026-10.3.bin;0;4180;1,0,12,5;2,12,3,1
+ *
+ * That is all TaskMap needs to index the days without opening any file; a partition is
+ * mapped the first time one of its days is decoded.
+ *
+ * A month is written to a new file whose name carries the next generation, and the manifest,
+ * replaced atomically, is the commit point: until it names the new files, the old ones are
+ * still what is read, so a crash during a save leaves the previous store whole. Files the
+ * manifest no longer names are deleted after it is written. Mappings of deleted files stay
+ * readable, so days already indexed from them keep decoding.
+ */
+public class TaskPartitions {
+    private static final String MANIFEST = "manifest";
+    private static final int RANKS = Task.Priority.values().length + 1;
+
+    /*
+     * One month of records, opened on first use. Only reads the mapping once it is open, so any
+     * number of threads may decode from it at once.
+     */
+    public static class Partition implements TaskRecords {
+        private YearMonth month;
+        private int generation;
+        private File file;
+        private boolean recurring;
+        // Day of the month to its first record, number of records and priority mask
+        private TreeMap<LocalDate, int[]> days = new TreeMap<>();
+        private int size;
+        // -1 when the manifest predates the field, until the file is read for it
+        private long maxId = -1;
+        private volatile TaskStore.Records records;
+
+        Partition(File dir, YearMonth month, int generation) {
+            this.month = month;
+            this.generation = generation;
+            this.file = new File(dir, month + "." + generation + ".bin");
+        }
+
+        public YearMonth month() {
+            return month;
+        }
+
+        public boolean isRecurring() {
+            return recurring;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // Days with tasks, in order
+        public NavigableSet<LocalDate> days() {
+            return Collections.unmodifiableNavigableSet(days.navigableKeySet());
+        }
+
+        // The day's record numbers
+        public int[] rows(LocalDate date) {
+            int[] day = days.get(date);
+            int[] rows = new int[day[1]];
+            for (int k=0;k<rows.length;k++)
+                rows[k] = day[0] + k;
+            return rows;
+        }
+
+        // Indexed by Task.priorityRank: whether the day has a task of that priority
+        public boolean[] ranks(LocalDate date) {
+            int mask = days.get(date)[2];
+            boolean[] ranks = new boolean[RANKS];
+            for (int r=0;r<RANKS;r++)
+                ranks[r] = (mask & (1 << r)) != 0;
+            return ranks;
+        }
+
+        // Largest task id in the partition
+        public long maxId() throws IOException {
+            if (maxId < 0)
+                maxId = records().maxId();
+            return maxId;
+        }
+
+        public boolean isOpen() {
+            return records != null;
+        }
+
+        // The records, mapping the file the first time
+        public TaskStore.Records records() throws IOException {
+            TaskStore.Records r = records;
+            if (r != null)
+                return r;
+            synchronized (this) {
+                if (records == null) {
+                    records = TaskStore.Records.open(file.getPath());
+                    Metrics.PARTITIONS_OPENED.increment();
+                }
+                return records;
+            }
+        }
+
+        public Task decode(int row) {
+            try {
+                return records().decode(row);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        public long id(int row) {
+            try {
+                return records().id(row);
+            }
+            catch (IOException e)
+            {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String toLine() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(month).append(';').append(file.getName()).append(';').append(recurring ? 1 : 0).append(';').append(maxId);
+            for (Map.Entry<LocalDate, int[]> e : days.entrySet()) {
+                int[] day = e.getValue();
+                sb.append(';').append(e.getKey().getDayOfMonth()).append(',').append(day[0]).append(',').append(day[1]).append(',').append(day[2]);
+            }
+            return sb.toString();
+        }
+
+        private static Partition parse(File dir, String line) throws IOException {
+            try {
+                String[] parts = line.split(";");
+                YearMonth month = YearMonth.parse(parts[0]);
+                String name = parts[1];
+                int generation = Integer.parseInt(name.substring(month.toString().length() + 1, name.length() - 4));
+                Partition p = new Partition(dir, month, generation);
+                p.recurring = parts[2].equals("1");
+                int first = 3;
+                if (parts.length > 3 && parts[3].indexOf(',') < 0)
+                    p.maxId = Long.parseLong(parts[first++]);
+                for (int i=first;i<parts.length;i++) {
+                    String[] day = parts[i].split(",");
+                    int[] run = {Integer.parseInt(day[1]), Integer.parseInt(day[2]), Integer.parseInt(day[3])};
+                    p.days.put(month.atDay(Integer.parseInt(day[0])), run);
+                    p.size += run[1];
+                }
+                return p;
+            }
+            catch (RuntimeException e)
+            {
+                throw new IOException("Bad manifest line: " + line);
+            }
+        }
+    }
+
+    private File dir;
+    private TreeMap<YearMonth, Partition> partitions = new TreeMap<>();
+
+    // Partitions kept in the given directory, which is created on the first write
+    public TaskPartitions(String dir) {
+        this.dir = new File(dir);
+    }
+
+    public boolean exists() {
+        return new File(dir, MANIFEST).exists();
+    }
+
+    public synchronized void read() throws IOException {
+        partitions.clear();
+        BufferedReader br = new BufferedReader(new FileReader(new File(dir, MANIFEST), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty())
+                    continue;
+                Partition p = Partition.parse(dir, line);
+                partitions.put(p.month, p);
+            }
+        }
+        finally
+        {
+            br.close();
+        }
+    }
+
+    // Partitions in month order, as of the last read or commit
+    public synchronized ArrayList<Partition> partitions() {
+        return new ArrayList<>(partitions.values());
+    }
+
+    /*
+     * Writes the month's tasks, given by day in date order, to the month's next file. Nothing
+     * reads it until commit puts it in the manifest. The priorities and recurring flag are
+     * taken from the tasks as TaskStore writes them, so days held as records are decoded once.
+     */
+    public synchronized Partition write(YearMonth month, NavigableMap<LocalDate, Collection<Task>> tasks) throws IOException {
+        Partition current = partitions.get(month);
+        Partition p = new Partition(dir, month, (current == null) ? 1 : current.generation + 1);
+        p.maxId = 0;
+        for (Map.Entry<LocalDate, Collection<Task>> e : tasks.entrySet()) {
+            p.days.put(e.getKey(), new int[]{p.size, e.getValue().size(), 0});
+            p.size += e.getValue().size();
+        }
+        dir.mkdirs();
+        TaskStore.write(p.file.getPath(), new AbstractCollection<Task>() {
+            public int size() {
+                return p.size;
+            }
+
+            public Iterator<Task> iterator() {
+                return new Iterator<Task>() {
+                    private Iterator<Map.Entry<LocalDate, Collection<Task>>> days = tasks.entrySet().iterator();
+                    private Iterator<Task> day = Collections.emptyIterator();
+                    private int[] run;
+
+                    public boolean hasNext() {
+                        while (!day.hasNext() && days.hasNext()) {
+                            Map.Entry<LocalDate, Collection<Task>> e = days.next();
+                            run = p.days.get(e.getKey());
+                            day = e.getValue().iterator();
+                        }
+                        return day.hasNext();
+                    }
+
+                    public Task next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        Task t = day.next();
+                        run[2] |= 1 << t.priorityRank();
+                        p.recurring |= t.getRecurrence() != null;
+                        p.maxId = Math.max(p.maxId, t.getId());
+                        return t;
+                    }
+                };
+            }
+        });
+        Metrics.PARTITIONS_WRITTEN.increment();
+        return p;
+    }
+
+    /*
+     * Puts the written partitions in the manifest in place of their months' old ones, drops the
+     * emptied months and replaces the manifest, then deletes the files it no longer names,
+     * including those of saves that never got this far.
+     */
+    public synchronized void commit(Collection<Partition> written, Collection<YearMonth> emptied) throws IOException {
+        for (YearMonth month : emptied)
+            partitions.remove(month);
+        for (Partition p : written)
+            partitions.put(p.month, p);
+        dir.mkdirs();
+        AtomicFile target = new AtomicFile(new File(dir, MANIFEST).getPath());
+        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(target.startWrite(), StandardCharsets.UTF_8));
+        try {
+            for (Partition p : partitions.values()) {
+                bw.write(p.toLine());
+                bw.newLine();
+            }
+            bw.flush();
+            target.finishWrite();
+        }
+        catch (IOException e)
+        {
+            target.failWrite();
+            throw e;
+        }
+
+        HashSet<String> named = new HashSet<>();
+        named.add(MANIFEST);
+        for (Partition p : partitions.values())
+            named.add(p.file.getName());
+        // A file that cannot be deleted yet, e.g. while it is mapped on Windows, goes at a later commit
+        File[] files = dir.listFiles();
+        for (int i=0; files!=null && i<files.length; i++)
+            if (!named.contains(files[i].getName()))
+                files[i].delete();
+    }
+
+    /*
+     * Saves two years of tasks, changes one day and saves again, and checks that only that
+     * month's file was rewritten and that a reopened map holds the same tasks, then that a
+     * store in the single tasks.bin of earlier versions is split when it is closed. With
+     * -Dtodolist.metrics=true it also checks that reading a day maps its partition alone:
+     * java TaskPartitions [tasks]
+     */
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        LocalDate first = LocalDate.of(2030, 1, 1);
+        File data = TempDir.create("partitions");
+        try {
+            TaskMap taskMap = new TaskMap(data.getPath(), true);
+            ArrayList<Task> tasks = new ArrayList<>();
+            Task.Priority[] priorities = Task.Priority.values();
+            for (int i=0;i<count;i++)
+                tasks.add(new Task("Task " + i, (i % 3 == 0) ? null : "Details " + i, first.plusDays(i % 730),
+                        (i % 4 == 3) ? null : priorities[i % 4], null));
+            taskMap.addAll(tasks);
+            taskMap.saveTasks();
+            File dir = new File(data, "tasks");
+            long total = bytes(dir);
+            TaskPartitions saved = new TaskPartitions(dir.getPath());
+            saved.read();
+            boolean ok = saved.partitions().size() == 24;
+
+            Task changed = new Task("Changed", null, first.plusDays(40), Task.Priority.HIGH, null);
+            taskMap.addTask(changed.getDueDate(), changed);
+            long start = System.nanoTime();
+            taskMap.saveTasks();
+            long elapsed = System.nanoTime() - start;
+            TaskPartitions after = new TaskPartitions(dir.getPath());
+            after.read();
+            for (Partition p : after.partitions()) {
+                Partition before = saved.partitions.get(p.month);
+                boolean rewritten = p.month.equals(YearMonth.from(changed.getDueDate()));
+                ok &= p.generation == before.generation + (rewritten ? 1 : 0);
+            }
+            File[] files = dir.listFiles();
+            ok &= files != null && files.length == 25;
+            System.out.println("Saved " + count + " tasks in " + total / 1024 + " KB; after one change: "
+                    + after.partitions.get(YearMonth.from(changed.getDueDate())).file.length() / 1024 + " KB rewritten in " + elapsed / 1000000 + " ms");
+
+            start = System.nanoTime();
+            TaskMap reloaded = new TaskMap(data.getPath(), true);
+            System.out.println("Reopened in " + (System.nanoTime() - start) / 1000000 + " ms");
+            long opened = Metrics.PARTITIONS_OPENED.getCount();
+            ok &= reloaded.size() == count + 1;
+            ok &= reloaded.getTasks(changed.getDueDate()).contains(changed);
+            if (Metrics.ENABLED)
+                ok &= Metrics.PARTITIONS_OPENED.getCount() == opened + 1;
+            ok &= sameTasks(taskMap, reloaded);
+
+            // A single-file store is split into partitions at the first exit, with nothing changed
+            File legacy = new File(data, "legacy");
+            legacy.mkdir();
+            TaskStore.write(new File(legacy, "tasks.bin").getPath(), tasks);
+            new TaskMap(legacy.getPath(), true).save();
+            TaskPartitions migrated = new TaskPartitions(new File(legacy, "tasks").getPath());
+            ok &= migrated.exists() && !new File(legacy, "tasks.bin").exists();
+            if (migrated.exists()) {
+                migrated.read();
+                ok &= migrated.partitions().size() == 24;
+            }
+            ok &= new TaskMap(legacy.getPath(), true).size() == count;
+            System.out.println("Split a single-file store into " + (migrated.exists() ? migrated.partitions().size() : 0) + " partitions on exit");
+            System.out.println(ok ? "All checks passed" : "Checks FAILED");
+            if (!ok)
+                System.exit(1);
+        }
+        finally
+        {
+            TempDir.delete(data);
+        }
+    }
+
+    // Same days with the same tasks in the same order, compared field by field through their CSV rows
+    private static boolean sameTasks(TaskMap a, TaskMap b) {
+        int days = 0;
+        for (LocalDate d = a.nextNonEmptyDay(LocalDate.MIN); d != null; d = a.nextNonEmptyDay(d), days++)
+            if (!rows(a.getTasks(d)).equals(rows(b.getTasks(d))))
+                return false;
+        for (LocalDate d = b.nextNonEmptyDay(LocalDate.MIN); d != null; d = b.nextNonEmptyDay(d))
+            days--;
+        return days == 0;
+    }
+
+    private static ArrayList<String> rows(Collection<Task> tasks) {
+        ArrayList<String> rows = new ArrayList<>();
+        if (tasks != null)
+            for (Task t : tasks)
+                rows.add(t.toString());
+        return rows;
+    }
+
+    private static long bytes(File dir) {
+        long n = 0;
+        File[] files = dir.listFiles();
+        for (int i=0; files!=null && i<files.length; i++)
+            n += files[i].length();
+        return n;
+    }
+}
@@ -0,0 +1,7 @@
+// Tasks kept as numbered records instead of objects, decoded one at a time by any number of threads
+public interface TaskRecords {
+    Task decode(int row);
+
+    // The row's task id, without decoding the row
+    long id(int row);
+}
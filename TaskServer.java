@@ -0,0 +1,395 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Headless JSON API over the task store, for scripts and other local tools.
+ *
+ *   GET    /tasks?from=&to=&limit=          tasks and occurrences due in [from, to], today by default
+ *   GET    /tasks/next?limit=               the most urgent tasks: overdue first, then by priority and date
+ *   POST   /tasks                           create {name, description, dueDate, dueTime, priority, tags,
+ *                                           recurrence}, recurrence as in Recurrence, e.g. "WEEKLY/2"
+ *   GET    /tasks/<date>/<id>               one task, or the occurrence of a recurring one
+ *   PUT    /tasks/<date>/<id>               change any of the fields above; for an occurrence, of its series
+ *   DELETE /tasks/<date>/<id>[?series=true] delete, or skip the occurrence (or delete its whole series)
+ *   POST   /tasks/<date>/<id>/complete      complete the task or occurrence
+ *   GET    /progress                        the numbers of the user details page
+ *   GET    /tags                            every tag
+ *
+ * Listens on the loopback interface only. Every request runs on its own virtual thread when
+ * the runtime has them (Java 21 and later) and on a cached pool otherwise; TaskMap and
+ * UserProgress take care of the concurrency. Tags are read only: they come from the data
+ * directory's tags.csv, loaded into the shared TagManager, and are managed in the application. Changes are journaled as they happen and
+ * compacted by an AutosaveService, as in the application.
+ */
+public class TaskServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_LIMIT = 1000;
+    private static final int NEXT_LIMIT = 20;
+    private static final long AUTOSAVE_DELAY = 2000;
+
+    private TaskMap taskMap;
+    private TagManager tagManager;
+    private UserProgress userProgress;
+    private ExecutorService owner;
+    private AutosaveService autosave;
+    private ExecutorService requests;
+    private HttpServer server;
+
+    public TaskServer(String dataDir) {
+        new File(dataDir).mkdirs();
+        tagManager = TagManager.open(dataDir);
+        taskMap = new TaskMap(dataDir, true);
+        userProgress = new UserProgress(taskMap, dataDir);
+
+        // AutosaveService keeps its bookkeeping on one owner thread; here that is a thread of its own
+        owner = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "autosave-owner");
+            t.setDaemon(true);
+            return t;
+        });
+        autosave = new AutosaveService(owner, AUTOSAVE_DELAY);
+        taskMap.setCompactInBackground(true);
+        taskMap.addListener(new TaskMapListener() {
+            public void taskAdded(LocalDate date, Task task) {
+                owner.execute(TaskServer.this::markDirty);
+            }
+
+            public void taskRemoved(LocalDate date, Task task) {
+                owner.execute(TaskServer.this::markDirty);
+            }
+        });
+    }
+
+    private void markDirty() {
+        autosave.markDirty(taskMap);
+        autosave.markDirty(userProgress);
+    }
+
+    // Returns the port, which is chosen by the system when 0 is passed
+    public int start(int port) throws IOException {
+        // Headers and body go out in separate writes, which Nagle's algorithm would hold back for a delayed ack
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        requests = requestExecutor();
+        server.setExecutor(requests);
+        server.createContext("/tasks", this::handleTasks);
+        server.createContext("/progress", this::handleProgress);
+        server.createContext("/tags", this::handleTags);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    // Let running requests finish, then write everything that is still dirty
+    public void stop() {
+        if (server != null)
+            server.stop(1);
+        if (requests != null) {
+            requests.shutdown();
+            try {
+                requests.awaitTermination(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            owner.submit(autosave::close).get();
+        }
+        catch (InterruptedException | ExecutionException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+        owner.shutdown();
+        // Fold the journal into the changed months, which autosave leaves to a later compaction
+        taskMap.save();
+    }
+
+    // One virtual thread per request where the runtime has them, a cached pool of platform threads otherwise
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e)
+        {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private void handleTasks(HttpExchange ex) throws IOException {
+        try {
+            String[] path = segments(ex, "/tasks");
+            String method = ex.getRequestMethod();
+            if (path.length == 0 && method.equals("GET"))
+                listTasks(ex);
+            else if (path.length == 0 && method.equals("POST"))
+                createTask(ex);
+            else if (path.length == 1 && path[0].equals("next") && method.equals("GET"))
+                listNext(ex);
+            else if (path.length == 2 || (path.length == 3 && path[2].equals("complete")))
+                handleTask(ex, method, LocalDate.parse(path[0]), Long.parseLong(path[1]), path.length == 3);
+            else
+                send(ex, 404, error("No such resource"));
+        }
+        catch (IllegalArgumentException | DateTimeParseException e)
+        {
+            send(ex, 400, error(e.getMessage()));
+        }
+        catch (RuntimeException e)
+        {
+            send(ex, 500, error(e.toString()));
+        }
+    }
+
+    private void listTasks(HttpExchange ex) throws IOException {
+        HashMap<String, String> query = query(ex);
+        LocalDate from = query.containsKey("from") ? LocalDate.parse(query.get("from")) : LocalDate.now();
+        LocalDate to = query.containsKey("to") ? LocalDate.parse(query.get("to")) : from;
+        int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : DEFAULT_LIMIT;
+
+        send(ex, 200, json(taskMap.getOccurrences(from, to), limit));
+    }
+
+    private static String json(ArrayList<Task> tasks, int limit) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i=0; i<tasks.size() && i<limit; i++) {
+            if (i > 0)
+                sb.append(',');
+            Json.appendTask(sb, tasks.get(i));
+        }
+        return sb.append(']').toString();
+    }
+
+    private void listNext(HttpExchange ex) throws IOException {
+        HashMap<String, String> query = query(ex);
+        int limit = query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : NEXT_LIMIT;
+        send(ex, 200, json(taskMap.nextUp(LocalDate.now(), limit), limit));
+    }
+
+    private void createTask(HttpExchange ex) throws IOException {
+        LinkedHashMap<String, Object> body = body(ex);
+        String name = string(body, "name");
+        String due = string(body, "dueDate");
+        if (name == null || name.isEmpty() || due == null)
+            throw new IllegalArgumentException("name and dueDate are required");
+
+        Task task = new Task(name, string(body, "description"), LocalDate.parse(due), priority(body), tags(body));
+        task.setDueTime(dueTime(body));
+        task.setRecurrence(recurrence(body));
+        taskMap.addTask(task.getDueDate(), task);
+        userProgress.addPending(task);
+        send(ex, 201, taskJson(task));
+    }
+
+    private void handleTask(HttpExchange ex, String method, LocalDate date, long id, boolean complete) throws IOException {
+        Task task = taskMap.findOccurrence(date, id);
+        if (task == null) {
+            send(ex, 404, error("No task " + id + " on " + date));
+            return;
+        }
+
+        if (complete) {
+            if (!method.equals("POST"))
+                send(ex, 405, error("Use POST"));
+            // Only the request whose remove succeeds counts the completion
+            else if (taskMap.removeTask(date, task)) {
+                userProgress.completeTask(task);
+                send(ex, 204, "");
+            }
+            else
+                send(ex, 404, error("No task " + id + " on " + date));
+        }
+        else if (method.equals("GET"))
+            send(ex, 200, taskJson(task));
+        else if (method.equals("DELETE")) {
+            if (task.getSeries() != null && "true".equals(query(ex).get("series")))
+                task = task.getSeries();
+            if (taskMap.removeTask(task.getDueDate(), task)) {
+                userProgress.deleteTask(task);
+                send(ex, 204, "");
+            }
+            else
+                send(ex, 404, error("No task " + id + " on " + date));
+        }
+        else if (method.equals("PUT")) {
+            // Tasks in the map are never edited in place; a changed copy replaces the old one
+            LinkedHashMap<String, Object> body = body(ex);
+            if (task.getSeries() != null)
+                task = task.getSeries();
+            String name = body.containsKey("name") ? string(body, "name") : task.getName();
+            if (name == null || name.isEmpty())
+                throw new IllegalArgumentException("name must not be empty");
+            Task changed = new Task(task.getId(), name,
+                    body.containsKey("description") ? string(body, "description") : task.getDescription(),
+                    body.containsKey("dueDate") ? LocalDate.parse(string(body, "dueDate")) : task.getDueDate(),
+                    body.containsKey("priority") ? priority(body) : task.getPriority(),
+                    body.containsKey("tags") ? tags(body) : task.getTags(),
+                    task.getAddedDate());
+            changed.setDueTime(body.containsKey("dueTime") ? dueTime(body) : task.getDueTime());
+            changed.setRecurrence(body.containsKey("recurrence") ? recurrence(body) : task.getRecurrence());
+            if (taskMap.updateTask(task.getDueDate(), changed))
+                send(ex, 200, taskJson(changed));
+            else
+                send(ex, 404, error("No task " + id + " on " + date));
+        }
+        else
+            send(ex, 405, error("Unsupported method " + method));
+    }
+
+    private void handleProgress(HttpExchange ex) throws IOException {
+        if (!ex.getRequestMethod().equals("GET")) {
+            send(ex, 405, error("Use GET"));
+            return;
+        }
+        LocalDate today = LocalDate.now();
+        String json = "{\"completed\":" + userProgress.getCompleted()
+                + ",\"completedToday\":" + userProgress.getCompletedToday()
+                + ",\"totalToday\":" + userProgress.getTotalToday()
+                + ",\"pending\":" + userProgress.getPending()
+                + ",\"streak\":" + userProgress.getStreak()
+                + ",\"completedThisWeek\":" + userProgress.completedInWeek(today)
+                + ",\"completedThisMonth\":" + userProgress.completedInMonth(YearMonth.from(today)) + "}";
+        send(ex, 200, json);
+    }
+
+    private void handleTags(HttpExchange ex) throws IOException {
+        if (!ex.getRequestMethod().equals("GET")) {
+            send(ex, 405, error("Use GET"));
+            return;
+        }
+        StringBuilder sb = new StringBuilder("[");
+        for (Tag t : new ArrayList<>(tagManager.getTagList())) {
+            if (sb.length() > 1)
+                sb.append(',');
+            sb.append("{\"id\":").append(t.getId())
+              .append(",\"name\":").append(Json.quote(t.getName()))
+              .append(",\"color\":").append(Json.quote(t.getColor().toString())).append('}');
+        }
+        send(ex, 200, sb.append(']').toString());
+    }
+
+    private static String taskJson(Task t) {
+        StringBuilder sb = new StringBuilder();
+        Json.appendTask(sb, t);
+        return sb.toString();
+    }
+
+    private static String string(LinkedHashMap<String, Object> body, String key) {
+        Object value = body.get(key);
+        if (value != null && !(value instanceof String))
+            throw new IllegalArgumentException(key + " must be a string");
+        return (String) value;
+    }
+
+    // HH:mm; seconds are dropped, as the task files only keep minutes
+    private static LocalTime dueTime(LinkedHashMap<String, Object> body) {
+        String time = string(body, "dueTime");
+        return (time == null) ? null : LocalTime.parse(time).truncatedTo(ChronoUnit.MINUTES);
+    }
+
+    private static Recurrence recurrence(LinkedHashMap<String, Object> body) {
+        String rule = string(body, "recurrence");
+        return (rule == null) ? null : Recurrence.parse(rule);
+    }
+
+    // Unlike Priority.parse, an unknown name is an error rather than LOW
+    private static Task.Priority priority(LinkedHashMap<String, Object> body) {
+        String name = string(body, "priority");
+        if (name == null)
+            return null;
+        for (Task.Priority p : Task.Priority.values())
+            if (p.toString().equals(name))
+                return p;
+        throw new IllegalArgumentException("priority must be HIGH, MEDIUM or LOW");
+    }
+
+    private ArrayList<Tag> tags(LinkedHashMap<String, Object> body) {
+        Object value = body.get("tags");
+        if (value == null)
+            return null;
+        if (!(value instanceof ArrayList))
+            throw new IllegalArgumentException("tags must be an array of tag names");
+        ArrayList<Tag> tags = new ArrayList<>();
+        for (Object name : (ArrayList<?>) value) {
+            Tag t = (name instanceof String) ? tagManager.find((String) name) : null;
+            if (t == null)
+                throw new IllegalArgumentException("Unknown tag: " + name);
+            tags.add(t);
+        }
+        return tags.isEmpty() ? null : tags;
+    }
+
+    private static String[] segments(HttpExchange ex, String context) {
+        String rest = ex.getRequestURI().getPath().substring(context.length());
+        while (rest.startsWith("/"))
+            rest = rest.substring(1);
+        return rest.isEmpty() ? new String[0] : rest.split("/");
+    }
+
+    private static HashMap<String, String> query(HttpExchange ex) {
+        HashMap<String, String> map = new HashMap<>();
+        String raw = ex.getRequestURI().getRawQuery();
+        if (raw == null)
+            return map;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0)
+                map.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return map;
+    }
+
+    private static LinkedHashMap<String, Object> body(HttpExchange ex) throws IOException {
+        return Json.parseObject(new String(ex.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    private static String error(String message) {
+        return "{\"error\":" + Json.quote(message) + "}";
+    }
+
+    private static void send(HttpExchange ex, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        // A response without a body finishes the exchange at once, and the server drops the
+        // connection if the request has not been read to the end by then
+        ex.getRequestBody().close();
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, (body.length == 0) ? -1 : body.length);
+        if (body.length > 0) {
+            OutputStream os = ex.getResponseBody();
+            os.write(body);
+        }
+        ex.close();
+    }
+
+    // java TaskServer [port] [data directory]
+    public static void main(String[] args) throws IOException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        String dataDir = (args.length > 1) ? args[1] : "data";
+
+        TaskServer server = new TaskServer(dataDir);
+        int bound = server.start(port);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        System.out.println("Serving " + server.taskMap.size() + " tasks on http://127.0.0.1:" + bound);
+    }
+}
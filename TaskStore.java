@@ -0,0 +1,323 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+/*
+ * Binary task file, read through a memory mapping.
+ *
+ * header   : magic, version, task count, tag count, heap offset, heap size
+ * tags     : one (offset, length) pair per tag name in the heap
+ * records  : one fixed-width record per task
+ *            due epoch day, added epoch day, priority, tag count,
+ *            name (offset, length), description (offset, length), offset of the tag ids,
+ *            task id (since version 2), due minute of the day or -1 (since version 3),
+ *            recurrence (offset, length), offset -1 for none (since version 4)
+ * heap     : UTF-8 strings and the short tag ids of every record
+ */
+public class TaskStore {
+    public static final int MAGIC = 0x54444C53;
+    public static final short VERSION = 4;
+
+    private static final int HEADER_SIZE = 24;
+    private static final int TAG_ENTRY_SIZE = 8;
+    private static final int RECORD_SIZE = 52;
+    private static final int RECORD_SIZE_V3 = 44;
+    private static final int RECORD_SIZE_V2 = 40;
+    private static final int RECORD_SIZE_V1 = 32;
+
+    public static ArrayList<Task> read(String file) throws IOException {
+        return read(file, null, null, true);
+    }
+
+    // Decode only the tasks due inside [from, to], or only those outside it, without decoding the others
+    public static ArrayList<Task> read(String file, LocalDate from, LocalDate to, boolean inside) throws IOException {
+        Records records = Records.open(file);
+        ArrayList<Task> list = new ArrayList<>();
+        long fromDay = (from==null) ? Long.MIN_VALUE : from.toEpochDay();
+        long toDay = (to==null) ? Long.MAX_VALUE : to.toEpochDay();
+        for (int i=0;i<records.size();i++) {
+            int dueDay = records.dueDay(i);
+            if ((dueDay >= fromDay && dueDay <= toDay) == inside)
+                list.add(records.decode(i));
+        }
+        return list;
+    }
+
+    /*
+     * The records of a store file, left in the mapping and decoded one at a time on request.
+     * Tag names are resolved once when the file is opened. Only reads the mapping, so any
+     * number of threads may decode from it at once.
+     */
+    public static class Records implements TaskRecords {
+        private ByteBuffer buf;
+        private short version;
+        private int count;
+        private int recordStart;
+        private int recordSize;
+        private int heapOffset;
+        private Tag[] tags;
+
+        public static Records open(String file) throws IOException {
+            FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            channel.close();
+
+            if (buf.getInt(0) != MAGIC)
+                throw new IOException(file + " is not a task store");
+            Records r = new Records();
+            r.buf = buf;
+            r.version = buf.getShort(4);
+            if (r.version > VERSION)
+                throw new IOException(file + " has unsupported version " + r.version);
+
+            r.count = buf.getInt(8);
+            int tagCount = buf.getInt(12);
+            r.heapOffset = buf.getInt(16);
+            r.tags = new Tag[tagCount];
+            for (int i=0;i<tagCount;i++) {
+                int pos = HEADER_SIZE + i*TAG_ENTRY_SIZE;
+                String name = string(buf, r.heapOffset + buf.getInt(pos), buf.getInt(pos+4));
+                r.tags[i] = Task.getTagManager().find(name);
+            }
+            r.recordSize = (r.version == 1) ? RECORD_SIZE_V1 : (r.version == 2) ? RECORD_SIZE_V2 : (r.version == 3) ? RECORD_SIZE_V3 : RECORD_SIZE;
+            r.recordStart = HEADER_SIZE + tagCount*TAG_ENTRY_SIZE;
+            return r;
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int dueDay(int i) {
+            return buf.getInt(recordStart + i*recordSize);
+        }
+
+        // Task.priorityRank of the record, without decoding it
+        public int priorityRank(int i) {
+            byte p = buf.get(recordStart + i*recordSize + 8);
+            return (p < 0) ? Task.Priority.values().length : p;
+        }
+
+        public boolean isRecurring(int i) {
+            return version >= 4 && buf.getInt(recordStart + i*recordSize + 44) >= 0;
+        }
+
+        // Record numbers grouped by due date
+        public TreeMap<LocalDate, int[]> byDay() {
+            long[] keys = new long[count];
+            for (int i=0;i<count;i++)
+                keys[i] = ((long) dueDay(i) << 32) | i;
+            Arrays.sort(keys);
+            TreeMap<LocalDate, int[]> byDay = new TreeMap<>();
+            for (int start=0, end; start<count; start=end) {
+                int day = (int) (keys[start] >> 32);
+                for (end=start+1; end<count && (int) (keys[end] >> 32) == day; end++);
+                int[] records = new int[end - start];
+                for (int k=start;k<end;k++)
+                    records[k - start] = (int) keys[k];
+                byDay.put(LocalDate.ofEpochDay(day), records);
+            }
+            return byDay;
+        }
+
+        // Version 1 records have no ids, so every decode would give the task a new one
+        public boolean hasIds() {
+            return version >= 2;
+        }
+
+        // Largest id of any record, read without decoding them; 0 for version 1 records
+        public long maxId() {
+            long max = 0;
+            for (int i=0; hasIds() && i<count; i++)
+                max = Math.max(max, id(i));
+            return max;
+        }
+
+        // 0 for version 1 records, which have no ids
+        public long id(int i) {
+            return hasIds() ? buf.getLong(recordStart + i*recordSize + 32) : 0;
+        }
+
+        public Task decode(int i) {
+            int pos = recordStart + i*recordSize;
+            LocalDate due = LocalDate.ofEpochDay(buf.getInt(pos));
+            LocalDate added = LocalDate.ofEpochDay(buf.getInt(pos+4));
+            byte p = buf.get(pos+8);
+            Task.Priority priority = (p < 0) ? null : Task.Priority.values()[p];
+            int recordTags = buf.get(pos+9) & 0xFF;
+
+            String name = string(buf, heapOffset + buf.getInt(pos+12), buf.getInt(pos+16));
+            int descOff = buf.getInt(pos+20);
+            String desc = (descOff < 0) ? null : string(buf, heapOffset + descOff, buf.getInt(pos+24));
+
+            ArrayList<Tag> taskTags = null;
+            if (recordTags > 0) {
+                taskTags = new ArrayList<>(recordTags);
+                int tagPos = heapOffset + buf.getInt(pos+28);
+                for (int j=0;j<recordTags;j++) {
+                    Tag t = tags[buf.getShort(tagPos + 2*j)];
+                    if (t != null)
+                        taskTags.add(t);
+                }
+            }
+            Task t = (version == 1) ? new Task(name, desc, due, priority, taskTags, added)
+                                    : new Task(buf.getLong(pos+32), name, desc, due, priority, taskTags, added);
+            int dueMinute = (version >= 3) ? buf.getInt(pos+40) : -1;
+            if (dueMinute >= 0)
+                t.setDueTime(LocalTime.ofSecondOfDay(dueMinute * 60));
+            int ruleOff = (version >= 4) ? buf.getInt(pos+44) : -1;
+            if (ruleOff >= 0)
+                t.setRecurrence(Recurrence.parse(string(buf, heapOffset + ruleOff, buf.getInt(pos+48))));
+            return t;
+        }
+    }
+
+    public static void write(String file, Collection<Task> tasks) throws IOException {
+        ByteArrayOutputStream heap = new ByteArrayOutputStream();
+        HashMap<Integer, Integer> tagIds = new HashMap<>();
+        ArrayList<int[]> tagEntries = new ArrayList<>();
+        ByteBuffer records = ByteBuffer.allocate(tasks.size()*RECORD_SIZE);
+
+        for (Task t : tasks) {
+            int[] name = putString(heap, t.getName());
+            int[] desc = (t.getDescription()==null) ? new int[]{-1, 0} : putString(heap, t.getDescription());
+            int[] rule = (t.getRecurrence()==null) ? new int[]{-1, 0} : putString(heap, t.getRecurrence().toString());
+
+            ArrayList<Tag> taskTags = t.getTags();
+            int recordTags = (taskTags==null) ? 0 : Math.min(taskTags.size(), 255);
+            for (int j=0;j<recordTags;j++) {
+                Tag tag = taskTags.get(j);
+                if (!tagIds.containsKey(tag.getId())) {
+                    tagIds.put(tag.getId(), tagEntries.size());
+                    tagEntries.add(putString(heap, tag.getName()));
+                }
+            }
+            // tag ids go after any new tag names so they stay contiguous
+            int tagsOff = heap.size();
+            for (int j=0;j<recordTags;j++) {
+                int id = tagIds.get(taskTags.get(j).getId());
+                heap.write(id >> 8);
+                heap.write(id);
+            }
+
+            records.putInt((int) t.getDueDate().toEpochDay());
+            records.putInt((int) t.getAddedDate().toEpochDay());
+            records.put((t.getPriority()==null) ? (byte) -1 : (byte) t.getPriority().ordinal());
+            records.put((byte) recordTags);
+            records.putShort((short) 0);
+            records.putInt(name[0]);
+            records.putInt(name[1]);
+            records.putInt(desc[0]);
+            records.putInt(desc[1]);
+            records.putInt(tagsOff);
+            records.putLong(t.getId());
+            records.putInt((t.getDueTime()==null) ? -1 : t.getDueTime().getHour()*60 + t.getDueTime().getMinute());
+            records.putInt(rule[0]);
+            records.putInt(rule[1]);
+        }
+
+        int heapOffset = HEADER_SIZE + tagEntries.size()*TAG_ENTRY_SIZE + tasks.size()*RECORD_SIZE;
+        AtomicFile target = new AtomicFile(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(target.startWrite(), 1 << 16));
+        try {
+            writeTo(out, tasks.size(), heapOffset, tagEntries, records, heap);
+            out.flush();
+            target.finishWrite();
+        }
+        catch (IOException e)
+        {
+            target.failWrite();
+            throw e;
+        }
+    }
+
+    private static void writeTo(DataOutputStream out, int taskCount, int heapOffset, ArrayList<int[]> tagEntries,
+                                ByteBuffer records, ByteArrayOutputStream heap) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeShort(0);
+        out.writeInt(taskCount);
+        out.writeInt(tagEntries.size());
+        out.writeInt(heapOffset);
+        out.writeInt(heap.size());
+        for (int[] e : tagEntries) {
+            out.writeInt(e[0]);
+            out.writeInt(e[1]);
+        }
+        out.write(records.array(), 0, records.position());
+        heap.writeTo(out);
+    }
+
+    // Convert CSV rows into tasks, skipping lines that do not parse
+    public static ArrayList<Task> importCSV(String file) throws IOException {
+        return new ParallelTaskLoader().load(file);
+    }
+
+    public static void exportCSV(String file, Collection<Task> tasks) throws IOException {
+        AtomicFile target = new AtomicFile(file);
+        BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(target.startWrite(), StandardCharsets.UTF_8));
+        try {
+            TaskCodec codec = new TaskCodec();
+            for (Task t : tasks) {
+                codec.encode(t).writeTo(bw);
+                bw.newLine();
+            }
+            bw.flush();
+            target.finishWrite();
+        }
+        catch (IOException e)
+        {
+            target.failWrite();
+            throw e;
+        }
+    }
+
+    private static int[] putString(ByteArrayOutputStream heap, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int off = heap.size();
+        heap.write(bytes, 0, bytes.length);
+        return new int[]{off, bytes.length};
+    }
+
+    private static String string(ByteBuffer buf, int off, int len) {
+        byte[] bytes = new byte[len];
+        buf.get(off, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Usage: TaskStore import <csv> <bin>  |  TaskStore export <bin> <csv>
+    public static void main(String[] args) {
+        if (args.length != 3) {
+            System.out.println("Usage: TaskStore import <csv> <bin> | export <bin> <csv>");
+            return;
+        }
+        try {
+            if (args[0].equals("import")) {
+                ParallelTaskLoader loader = new ParallelTaskLoader();
+                ArrayList<Task> tasks = loader.load(args[1]);
+                write(args[2], tasks);
+                System.out.println("Imported " + tasks.size() + " tasks into " + args[2] + " (" + loader.timings() + ")");
+            }
+            else if (args[0].equals("export")) {
+                ArrayList<Task> tasks = read(args[1]);
+                exportCSV(args[2], tasks);
+                System.out.println("Exported " + tasks.size() + " tasks to " + args[2]);
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,28 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/*
+ * Throwaway data directories for the self-check mains that run a TaskMap, store or server on
+ * disk, so they never touch data/:
+ *
+ *   File dir = TempDir.create("name");
+ *   try { ... } finally { TempDir.delete(dir); }
+ */
+public class TempDir {
+    private TempDir() {
+    }
+
+    public static File create(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    // The directory and everything in it
+    public static void delete(File f) throws IOException {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File c : children)
+                delete(c);
+        Files.deleteIfExists(f.toPath());
+    }
+}
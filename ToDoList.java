@@ -1,47 +1,77 @@
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Circle;
-import javafx.scene.shape.Rectangle;
 import javafx.scene.text.Font;
 import javafx.stage.Stage;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ToDoList extends Application {
-    private VBox taskListContainer;
+    private ListView<Object> taskListView;
     private TaskMap taskMap;
     private TagManager tagManager;
     private UserProgress userProgress;
     private LocalDate today;
     private BorderPane mainLayout;
+    private TreeMap<LocalDate, TaskCell.Header> sections = new TreeMap<>();
+    private HashMap<LocalDate, TaskCell.Header> placeholders = new HashMap<>();
+    private ObservableList<Tag> tagItems;
+    private SearchIndex searchIndex;
+    // Shown while the index is built, and the query to run once it is
+    private TaskCell.Header indexingRow;
+    private String searchQuery;
+    private static final int SEARCH_LIMIT = 100;
+    private ProgressBar loadProgress;
+    private AutosaveService autosave;
+    private static final long AUTOSAVE_DELAY = 2000;
+    private ReminderScheduler reminders;
+    private static final Duration REMINDER_LEAD = Duration.ofMinutes(15);
+    private static final LocalTime REMINDER_TIME = LocalTime.of(9, 0);
+    // Rebuilds the date view on screen, when one is; a recurring task can change any of its days
+    private Runnable currentView;
+    private boolean refreshPending;
+    private static final int NEXT_UP_LIMIT = 20;
 
     @Override
     public void start(Stage primaryStage) {
-        taskMap = new TaskMap();
-        tagManager = new TagManager();
-        userProgress = new UserProgress();
         today = LocalDate.now();
 
-        taskListContainer = new VBox(20);
-        taskListContainer.setPadding(new Insets(20));
-        taskListContainer.setStyle("-fx-background-color: #F0F0F0;");
+        taskListView = new ListView<>();
+        taskListView.setStyle("-fx-background-color: #F0F0F0; -fx-control-inner-background: #F0F0F0; -fx-background-insets: 0;");
+        taskListView.setFocusTraversable(false);
+        taskListView.setCellFactory(lv -> new TaskCell(this::completeTask, this::deleteTask));
 
         Button homeButton = new Button("Home");
         styleSidebarButton(homeButton);
         homeButton.setOnAction(e -> {
-            mainLayout.setCenter(taskListContainer);
+            mainLayout.setCenter(taskListView);
             loadTasksForThreeDays();
         });
 
         Button calendarButton = new Button("Calendar");
         styleSidebarButton(calendarButton);
         calendarButton.setOnAction(e -> {
-            taskListContainer.getChildren().clear();
             DatePicker dueDatePicker = new DatePicker(today);
             dueDatePicker.setPromptText("Select Due Date");
             
@@ -49,8 +79,7 @@ public class ToDoList extends Application {
             loadTasksBtn.setOnAction(event -> {
                 LocalDate selectedDate = dueDatePicker.getValue();
                 if (selectedDate != null) {
-                    mainLayout.setCenter(taskListContainer);
-                    taskListContainer.getChildren().clear();
+                    mainLayout.setCenter(taskListView);
                     displayTasksForDate(selectedDate);  
                 } else {
                      
@@ -59,7 +88,33 @@ public class ToDoList extends Application {
                 }
             });
 
-            VBox calendarLayout = new VBox(10, dueDatePicker, loadTasksBtn);
+            Button nextTasksBtn = new Button("Next Day With Tasks");
+            nextTasksBtn.setOnAction(event -> {
+                LocalDate selectedDate = dueDatePicker.getValue();
+                LocalDate next = taskMap.nextDueDay(selectedDate == null ? today : selectedDate);
+                if (next != null) {
+                    dueDatePicker.setValue(next);
+                    mainLayout.setCenter(taskListView);
+                    displayTasksForDate(next);
+                } else {
+                    Alert alert = new Alert(Alert.AlertType.INFORMATION, "No upcoming tasks");
+                    alert.show();
+                }
+            });
+
+            Button loadWeekBtn = new Button("Load Week");
+            loadWeekBtn.setOnAction(event -> {
+                LocalDate selectedDate = dueDatePicker.getValue();
+                if (selectedDate != null) {
+                    mainLayout.setCenter(taskListView);
+                    displayTasksForRange(selectedDate, selectedDate.plusDays(6));
+                } else {
+                    Alert alert = new Alert(Alert.AlertType.ERROR, "Please select a date");
+                    alert.show();
+                }
+            });
+
+            VBox calendarLayout = new VBox(10, dueDatePicker, loadTasksBtn, nextTasksBtn, loadWeekBtn);
             calendarLayout.setPadding(new Insets(20));
             mainLayout.setCenter(calendarLayout);   
         });
@@ -68,6 +123,17 @@ public class ToDoList extends Application {
         styleSidebarButton(addTaskButton);
         addTaskButton.setOnAction(e -> openAddTaskDialog(today));  
 
+        Button nextUpButton = new Button("Next Up");
+        styleSidebarButton(nextUpButton);
+        nextUpButton.setOnAction(e -> {
+            mainLayout.setCenter(taskListView);
+            displayNextUp();
+        });
+
+        Button filterButton = new Button("Filter");
+        styleSidebarButton(filterButton);
+        filterButton.setOnAction(e -> openFilterDialog());
+
         Button tagButton = new Button("Manage Tags");
         styleSidebarButton(tagButton);
         tagButton.setOnAction(e -> openManageTagsDialog());
@@ -76,91 +142,277 @@ public class ToDoList extends Application {
         styleSidebarButton(userButton);
         userButton.setOnAction(e -> openUserDetails());
 
-        VBox sidebar = new VBox(20, homeButton, calendarButton, addTaskButton, tagButton, userButton);
+        TextField searchField = new TextField();
+        searchField.setPromptText("Search tasks");
+        searchField.setMaxWidth(150);
+        searchField.textProperty().addListener((obs, oldText, newText) -> {
+            mainLayout.setCenter(taskListView);
+            if (newText.isBlank())
+                loadTasksForThreeDays();
+            else
+                displaySearchResults(newText);
+        });
+
+        VBox sidebarButtons = new VBox(20, searchField, homeButton, calendarButton, nextUpButton, addTaskButton, filterButton, tagButton, userButton);
+        sidebarButtons.setAlignment(Pos.TOP_CENTER);
+        sidebarButtons.setDisable(true);
+
+        loadProgress = new ProgressBar(0);
+        loadProgress.setPrefWidth(150);
+
+        VBox sidebar = new VBox(20, sidebarButtons, loadProgress);
         sidebar.setPadding(new Insets(20));
         sidebar.setStyle("-fx-background-color: #3A3A3A;");
         sidebar.setAlignment(Pos.TOP_CENTER);
 
         mainLayout = new BorderPane();
         mainLayout.setLeft(sidebar);
-        mainLayout.setCenter(taskListContainer);
+        mainLayout.setCenter(taskListView);
 
-        loadTasksForThreeDays();
+        taskListView.getItems().setAll(new TaskCell.Header("Loading tasks...", 0));
+        loadInBackground(sidebarButtons);
 
         Scene scene = new Scene(mainLayout, 1024, 600);
         
-        scene.setOnScroll(event -> {
-            double SCROLL_TOP = 0;
-            double deltaY = event.getDeltaY();  
-            double newTranslate = taskListContainer.getTranslateY() + deltaY * 0.5;
-            if (newTranslate < SCROLL_TOP)
-                taskListContainer.setTranslateY(newTranslate);  
-            event.consume();  
-        });
-        
         primaryStage.setScene(scene);
         primaryStage.setTitle("To-Do List");
 
+        // Changes are saved as they happen; write out whatever is still pending, then fold the
+        // journal into the changed months so the next start has nothing to replay
         primaryStage.setOnCloseRequest(e->{
-            e.consume();
-            ConfirmDialog(primaryStage);
+            if (reminders != null)
+                reminders.close();
+            if (autosave != null)
+                autosave.close();
+            if (taskMap != null)
+                taskMap.save();
         });
 
         primaryStage.show();
     }
 
-    private void ConfirmDialog(Stage stage)
-    {
-        Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
-        alert.setTitle("Confirm Exit");
-        alert.setHeaderText("Save changes?");
-        
-        ButtonType yesButton = new ButtonType("Yes");
-        ButtonType noButton = new ButtonType("No");
-        ButtonType cancelButton = new ButtonType("Cancel");
-        
-        alert.getButtonTypes().setAll(yesButton, noButton, cancelButton);
-        
-        alert.showAndWait().ifPresent(response -> {
-            if (response == noButton) {
-                stage.close();
+    // Open the store, which decodes only the days that are looked at, show the next three days,
+    // then apply the rest of the journal. All of it runs on the loader thread, which moves the
+    // progress bar as partitions are indexed and journal records replayed
+    private void loadInBackground(VBox sidebarButtons) {
+        ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "task-loader");
+            t.setDaemon(true);
+            return t;
+        });
+
+        loader.execute(() -> {
+            TagManager tags = TagManager.getInstance();
+            TaskMap tasks = new TaskMap(false);
+            tasks.setLoadProgress(p -> Platform.runLater(() -> loadProgress.setProgress(p)));
+            tasks.loadRange(today, today.plusDays(2));
+            UserProgress progress = new UserProgress(tasks);
+
+            Platform.runLater(() -> {
+                tagManager = tags;
+                userProgress = progress;
+                taskMap = tasks;
+                registerListeners();
+                loadTasksForThreeDays();
+            });
+
+            // Scheduling reads the days up to the reminder horizon, so it runs here once the first render is queued
+            ReminderScheduler scheduler = new ReminderScheduler(tasks, Clock.systemDefaultZone(), REMINDER_LEAD, REMINDER_TIME,
+                    Platform::runLater, this::showReminder);
+            Platform.runLater(() -> {
+                reminders = scheduler;
+                reminders.start();
+            });
+
+            // The other days are only reachable once their journal records are applied. Their
+            // events can come before the listener is registered, e.g. for a series filed outside
+            // the first three days, so the view is redrawn once they all are
+            tasks.finishLoading();
+            tasks.setLoadProgress(null);
+            Platform.runLater(() -> {
+                refreshView();
+                sidebarButtons.setDisable(false);
+                loadProgress.setVisible(false);
+            });
+            loader.shutdown();
+        });
+    }
+
+    private void registerListeners() {
+        autosave = new AutosaveService(Platform::runLater, AUTOSAVE_DELAY);
+        taskMap.setCompactInBackground(true);
+
+        // Progress events are recorded together with the task being added or removed.
+        // The map may be changed from other threads, so the view is updated on the FX thread
+        taskMap.addListener(new TaskMapListener() {
+            public void taskAdded(LocalDate date, Task task) {
+                onFxThread(() -> {
+                    if (task.getRecurrence() != null || sections.isEmpty())
+                        refreshView();
+                    else
+                        showAddedTask(date, task);
+                    autosave.markDirty(taskMap);
+                    autosave.markDirty(userProgress);
+                });
             }
-            else if (response == yesButton){
-                taskMap.saveTasksToCSV();
-                userProgress.saveProgressToCSV();
-                tagManager.saveTagsToCSV();
-                stage.close();
+
+            public void taskRemoved(LocalDate date, Task task) {
+                onFxThread(() -> {
+                    if (task.getRecurrence() != null || sections.isEmpty())
+                        refreshView();
+                    else
+                        hideRemovedTask(date, task);
+                    autosave.markDirty(taskMap);
+                    autosave.markDirty(userProgress);
+                });
             }
-            else
-            {
 
+            // A finished occurrence replaces its series; redraw once rather than twice
+            public void taskUpdated(LocalDate oldDate, Task oldTask, Task task) {
+                if (task.getRecurrence() == null) {
+                    TaskMapListener.super.taskUpdated(oldDate, oldTask, task);
+                    return;
+                }
+                onFxThread(() -> {
+                    refreshView();
+                    autosave.markDirty(taskMap);
+                    autosave.markDirty(userProgress);
+                });
             }
         });
+
+        tagItems = FXCollections.observableArrayList(tagManager.getTagList());
+        tagManager.addListener(new TagListener() {
+            public void tagAdded(Tag tag) {
+                tagItems.add(tag);
+                autosave.markDirty(tagManager);
+            }
+
+            public void tagRemoved(Tag tag) {
+                tagItems.remove(tag);
+                autosave.markDirty(tagManager);
+            }
+        });
+    }
+
+    // Non-modal, so a burst of reminders does not block the window
+    private void showReminder(Task task) {
+        LocalTime time = (task.getDueTime() == null) ? REMINDER_TIME : task.getDueTime();
+        Alert alert = new Alert(Alert.AlertType.INFORMATION, task.getName() + " is due at " + time + " on " + task.getDueDate());
+        alert.setTitle("Reminder");
+        alert.setHeaderText(null);
+        alert.show();
+    }
+
+    private static void onFxThread(Runnable r) {
+        if (Platform.isFxApplicationThread())
+            r.run();
+        else
+            Platform.runLater(r);
+    }
+
+    // Rebuild once for a burst of changes, such as a batch of the progressive load
+    private void refreshView() {
+        if (currentView == null || refreshPending)
+            return;
+        refreshPending = true;
+        Platform.runLater(() -> {
+            refreshPending = false;
+            if (currentView != null)
+                currentView.run();
+        });
+    }
+
+    // The most urgent tasks across all dates, overdue ones first
+    private void displayNextUp() {
+        currentView = this::displayNextUp;
+        ArrayList<Object> rows = new ArrayList<>();
+        sections.clear();
+        placeholders.clear();
+        ArrayList<Task> next = taskMap.nextUp(today, NEXT_UP_LIMIT);
+
+        if (next.isEmpty())
+            rows.add(new TaskCell.Header("Nothing to do", 0));
+        boolean overdue = false;
+        boolean upcoming = false;
+        for (Task task : next) {
+            if (task.getDueDate().isBefore(today) && !overdue) {
+                overdue = true;
+                rows.add(new TaskCell.Header("Overdue", 20));
+            } else if (!task.getDueDate().isBefore(today) && !upcoming) {
+                upcoming = true;
+                rows.add(new TaskCell.Header("Next Up", 20));
+            }
+            rows.add(task);
+        }
+        taskListView.getItems().setAll(rows);
     }
 
     private void loadTasksForThreeDays() {
-        taskListContainer.getChildren().clear();
+        long start = Metrics.start();
+        currentView = this::loadTasksForThreeDays;
+        ArrayList<Object> rows = new ArrayList<>();
+        sections.clear();
+        placeholders.clear();
         LocalDate date = today;
         
-        Label dateLabel1 = new Label("Today, " + toCamelCase(date.getDayOfWeek().toString()));
-        dateLabel1.setFont(Font.font(20));
-        dateLabel1.setStyle("-fx-font-weight: bold; -fx-text-fill: #333;");
-        taskListContainer.getChildren().add(dateLabel1);
-        displayTasksForDateHome(date);
+        addSection(rows, date, "Today, " + toCamelCase(date.getDayOfWeek().toString()), 20, taskMap.getOccurrences(date));
 
         date = date.plusDays(1);
-        Label dateLabel2 = new Label("Tomorrow, " + toCamelCase(date.getDayOfWeek().toString()));
-        dateLabel2.setFont(Font.font(20));
-        dateLabel2.setStyle("-fx-font-weight: bold; -fx-text-fill: #333;");
-        taskListContainer.getChildren().add(dateLabel2);
-        displayTasksForDateHome(date);
+        addSection(rows, date, "Tomorrow, " + toCamelCase(date.getDayOfWeek().toString()), 20, taskMap.getOccurrences(date));
 
         date = date.plusDays(1);
-        Label dateLabel3 = new Label("Day after Tomorrow, " + toCamelCase(date.getDayOfWeek().toString()));
-        dateLabel3.setFont(Font.font(20));
-        dateLabel3.setStyle("-fx-font-weight: bold; -fx-text-fill: #333;");
-        taskListContainer.getChildren().add(dateLabel3);
-        displayTasksForDateHome(date);
+        addSection(rows, date, "Day after Tomorrow, " + toCamelCase(date.getDayOfWeek().toString()), 20, taskMap.getOccurrences(date));
+
+        taskListView.getItems().setAll(rows);
+        Metrics.THREE_DAYS.since(start);
+    }
+
+    // Heading for one date followed by its tasks, or a placeholder when there are none
+    private void addSection(ArrayList<Object> rows, LocalDate date, String title, double size, Collection<Task> tasks) {
+        TaskCell.Header header = new TaskCell.Header(title, size);
+        sections.put(date, header);
+        rows.add(header);
+
+        if (tasks != null && !tasks.isEmpty()) {
+            rows.addAll(tasks);
+        } else {
+            TaskCell.Header placeholder = new TaskCell.Header("No tasks for " + date.toString(), 0);
+            placeholders.put(date, placeholder);
+            rows.add(placeholder);
+        }
+    }
+
+    // Patch the visible list for a single added task instead of rebuilding it. The task goes
+    // where TaskMap files it, before the first task of its day that sorts after it
+    private void showAddedTask(LocalDate date, Task task) {
+        if (!sections.containsKey(date))
+            return;
+        ObservableList<Object> items = taskListView.getItems();
+
+        TaskCell.Header placeholder = placeholders.remove(date);
+        if (placeholder != null)
+            items.remove(placeholder);
+
+        Map.Entry<LocalDate, TaskCell.Header> next = sections.higherEntry(date);
+        int end = (next == null) ? items.size() : items.indexOf(next.getValue());
+        int index = items.indexOf(sections.get(date)) + 1;
+        while (index < end && Task.BY_PRIORITY.compare(task, (Task) items.get(index)) >= 0)
+            index++;
+        items.add(index, task);
+    }
+
+    private void hideRemovedTask(LocalDate date, Task task) {
+        ObservableList<Object> items = taskListView.getItems();
+        items.remove(task);
+        if (!sections.containsKey(date))
+            return;
+
+        if (taskMap.getOccurrences(date).isEmpty() && !placeholders.containsKey(date)) {
+            TaskCell.Header placeholder = new TaskCell.Header("No tasks for " + date.toString(), 0);
+            placeholders.put(date, placeholder);
+            items.add(items.indexOf(sections.get(date)) + 1, placeholder);
+        }
     }
 
     private static String toCamelCase(String input) {
@@ -173,8 +425,7 @@ public class ToDoList extends Application {
     }
     
     private void openManageTagsDialog() {
-        ListView<Tag> tagListView = new ListView<>();
-        tagListView.getItems().addAll(tagManager.getTagList());
+        ListView<Tag> tagListView = new ListView<>(tagItems);
         tagListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
          
         tagListView.setPrefWidth(100);   
@@ -236,6 +487,7 @@ public class ToDoList extends Application {
 
      
     private void openAddTaskDialog(LocalDate date) {
+        Node previous = mainLayout.getCenter();
         TextField taskNameField = new TextField();
         taskNameField.setPromptText("Task Name");
         TextArea descriptionField = new TextArea();
@@ -244,14 +496,18 @@ public class ToDoList extends Application {
         descriptionField.setWrapText(true);
         DatePicker dueDatePicker = new DatePicker(date);  
         dueDatePicker.setPromptText("Due Date");
+        TextField dueTimeField = new TextField();
+        dueTimeField.setPromptText("Due Time (HH:mm, optional)");
+        ComboBox<String> repeatComboBox = new ComboBox<>();
+        repeatComboBox.getItems().addAll("Does not repeat", "Daily", "Weekly", "Monthly");
+        repeatComboBox.setValue("Does not repeat");
 
          
         ComboBox<Task.Priority> priorityComboBox = new ComboBox<>();
         priorityComboBox.getItems().addAll(Task.Priority.HIGH, Task.Priority.MEDIUM, Task.Priority.LOW);
         priorityComboBox.setPromptText("Priority");
 
-        ListView<Tag> tagListView = new ListView<>();
-        tagListView.getItems().addAll(tagManager.getTagList());
+        ListView<Tag> tagListView = new ListView<>(tagItems);
         tagListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
          
         tagListView.setPrefWidth(100);   
@@ -290,14 +546,32 @@ public class ToDoList extends Application {
              
             if (selectedTags.size()==0) selectedTags=null;
 
+            LocalTime dueTime = null;
+            try {
+                if (!dueTimeField.getText().isBlank())
+                    dueTime = LocalTime.parse(dueTimeField.getText().trim()).truncatedTo(ChronoUnit.MINUTES);
+            }
+            catch (DateTimeParseException ex)
+            {
+                Alert alert = new Alert(Alert.AlertType.ERROR, "Due time must be HH:mm");
+                alert.show();
+                return;
+            }
+
             if (!taskName.isEmpty() && priority != null && dueDate != null) {
                 Task newTask = new Task(taskName, description, dueDate, priority, selectedTags);
+                newTask.setDueTime(dueTime);
+                int repeat = repeatComboBox.getSelectionModel().getSelectedIndex();
+                if (repeat > 0)
+                    newTask.setRecurrence(new Recurrence(Recurrence.Frequency.values()[repeat - 1], 1, null));
                 taskMap.addTask(dueDate, newTask);
                 userProgress.addPending(newTask);
-                 
-                 
-                mainLayout.setCenter(taskListContainer);  
-                loadTasksForThreeDays();
+
+                // The listener has patched the list already; it is only redrawn when the form
+                // took the place of another page
+                mainLayout.setCenter(taskListView);
+                if (previous != taskListView && currentView != null)
+                    currentView.run();
             } else {
                  
                 Alert alert = new Alert(Alert.AlertType.ERROR, "Please fill all fields");
@@ -306,7 +580,7 @@ public class ToDoList extends Application {
         });
 
          
-        VBox taskFormLayout = new VBox(10, taskNameField, descriptionField, dueDatePicker, priorityComboBox, tagListView, addTaskBtn);
+        VBox taskFormLayout = new VBox(10, taskNameField, descriptionField, dueDatePicker, dueTimeField, repeatComboBox, priorityComboBox, tagListView, addTaskBtn);
         taskFormLayout.setPadding(new Insets(10));
 
          
@@ -315,105 +589,148 @@ public class ToDoList extends Application {
 
      
     private void displayTasksForDate(LocalDate date) {
-        ArrayList<Task> tasksForDate = taskMap.getTasks(date);
+        currentView = () -> displayTasksForDate(date);
+        ArrayList<Object> rows = new ArrayList<>();
+        sections.clear();
+        placeholders.clear();
 
-        if (tasksForDate != null) {
-            Label dateLabel = new Label("Tasks for " + date.toString());
-            dateLabel.setFont(Font.font(18));
-            dateLabel.setStyle("-fx-font-weight: bold; -fx-text-fill: #333;");
-            taskListContainer.getChildren().add(dateLabel);
+        addSection(rows, date, "Tasks for " + date.toString(), 18, taskMap.getOccurrences(date));
+        taskListView.getItems().setAll(rows);
+    }
 
-            for (Task task : tasksForDate) {
-                displayTask(task);
-            }
-        } else {
-            taskListContainer.getChildren().add(new Label("No tasks for " + date.toString()));
+    private void displayTasksForRange(LocalDate from, LocalDate to) {
+        currentView = () -> displayTasksForRange(from, to);
+        ArrayList<Object> rows = new ArrayList<>();
+        sections.clear();
+        placeholders.clear();
+        ArrayList<Task> tasksInRange = taskMap.getOccurrences(from, to);
+
+        int i = 0;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            ArrayList<Task> tasksForDate = new ArrayList<>();
+            while (i < tasksInRange.size() && tasksInRange.get(i).getDueDate().equals(date))
+                tasksForDate.add(tasksInRange.get(i++));
+            addSection(rows, date, "Tasks for " + date.toString(), 18, tasksForDate);
         }
+        taskListView.getItems().setAll(rows);
     }
 
-    private void displayTasksForDateHome(LocalDate date) {
-        ArrayList<Task> tasksForDate = taskMap.getTasks(date);
+    private void openFilterDialog() {
+        GridPane tagGrid = new GridPane();
+        tagGrid.setHgap(10);
+        tagGrid.setVgap(10);
 
-        if (tasksForDate != null) {
-            for (Task task : tasksForDate) {
-                displayTask(task);
-            }
-        } else {
-            taskListContainer.getChildren().add(new Label("No tasks for " + date.toString()));
+        ArrayList<ComboBox<String>> choices = new ArrayList<>();
+        for (int i = 0; i < tagItems.size(); i++) {
+            Tag tag = tagItems.get(i);
+            Circle colorCircle = new Circle(10, tag.getColor());
+            Label nameLabel = new Label(tag.getName());
+
+            ComboBox<String> choice = new ComboBox<>();
+            choice.getItems().addAll("Any", "Require", "Exclude");
+            choice.setValue("Any");
+            choices.add(choice);
+
+            tagGrid.addRow(i, colorCircle, nameLabel, choice);
         }
-    }
 
-     
-    private void displayTask(Task task) {
-        HBox taskBox = new HBox(10);   
-        taskBox.setPadding(new Insets(15));
-        taskBox.setStyle("-fx-background-color: #FFFFFF; -fx-background-radius: 10; -fx-effect: dropshadow(gaussian, rgba(0,0,0,0.2), 10, 0, 0, 1);");
+        DatePicker fromPicker = new DatePicker();
+        fromPicker.setPromptText("From (optional)");
+        DatePicker toPicker = new DatePicker();
+        toPicker.setPromptText("To (optional)");
+
+        Button applyBtn = new Button("Apply Filter");
+        applyBtn.setOnAction(e -> {
+            TaskFilter filter = new TaskFilter().between(fromPicker.getValue(), toPicker.getValue());
+            for (int i = 0; i < choices.size(); i++) {
+                if (choices.get(i).getValue().equals("Require"))
+                    filter.require(tagItems.get(i));
+                else if (choices.get(i).getValue().equals("Exclude"))
+                    filter.exclude(tagItems.get(i));
+            }
+            mainLayout.setCenter(taskListView);
+            displayFilteredTasks(filter);
+        });
 
-        Rectangle pri = new Rectangle(10, 80);   
-    
-     
-    if (task.getPriority()==Task.Priority.HIGH) {
-        pri.setFill(javafx.scene.paint.Color.RED);
-    } else if (task.getPriority()==Task.Priority.MEDIUM) {
-        pri.setFill(javafx.scene.paint.Color.YELLOW);
-    } else {
-        pri.setFill(javafx.scene.paint.Color.LIGHTGREEN);
+        VBox filterLayout = new VBox(20, tagGrid, fromPicker, toPicker, applyBtn);
+        filterLayout.setPadding(new Insets(20));
+        mainLayout.setCenter(filterLayout);
     }
 
-        CheckBox Complete = new CheckBox();
-        Complete.setAlignment(Pos.CENTER);
+    private void displayFilteredTasks(TaskFilter filter) {
+        currentView = null;
+        ArrayList<Object> rows = new ArrayList<>();
+        sections.clear();
+        placeholders.clear();
+        ArrayList<Task> matches = taskMap.filter(filter);
+
+        if (matches.isEmpty())
+            rows.add(new TaskCell.Header("No tasks match the filter", 0));
+        else
+            rows.add(new TaskCell.Header(matches.size() + " matching tasks", 20));
+
+        LocalDate current = null;
+        for (Task task : matches) {
+            if (!task.getDueDate().equals(current)) {
+                current = task.getDueDate();
+                rows.add(new TaskCell.Header("Tasks for " + current.toString(), 18));
+            }
+            rows.add(task);
+        }
+        taskListView.getItems().setAll(rows);
+    }
 
-        VBox check = new VBox(Complete);
-        check.setAlignment(Pos.CENTER_LEFT);
-        check.setPadding(new Insets(10,0,0,0));
+    private void displaySearchResults(String query) {
+        currentView = null;
+        ArrayList<Object> rows = new ArrayList<>();
+        sections.clear();
+        placeholders.clear();
+        searchQuery = query;
+        if (searchIndex == null) {
+            buildSearchIndex();
+            taskListView.getItems().setAll(indexingRow);
+            return;
+        }
+        ArrayList<Task> results = searchIndex.search(query, SEARCH_LIMIT);
+
+        if (results.isEmpty())
+            rows.add(new TaskCell.Header("No tasks match \"" + query + "\"", 0));
+        else
+            rows.add(new TaskCell.Header("Results for \"" + query + "\"", 20));
+        rows.addAll(results);
+        taskListView.getItems().setAll(rows);
+    }
 
-        Complete.setOnAction(event -> {
-        if (Complete.isSelected()) {
+    // Built on the first search, on a thread of its own since indexing decodes the whole
+    // history; the search still waiting for it runs once it is in place
+    private void buildSearchIndex() {
+        if (indexingRow != null)
+            return;
+        indexingRow = new TaskCell.Header("Indexing tasks...", 0);
+        TaskMap tasks = taskMap;
+        Thread t = new Thread(() -> {
+            SearchIndex index = new SearchIndex(tasks);
+            Platform.runLater(() -> {
+                searchIndex = index;
+                ObservableList<Object> items = taskListView.getItems();
+                if (!items.isEmpty() && items.get(0) == indexingRow)
+                    displaySearchResults(searchQuery);
+            });
+        }, "search-index");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    // A cell can outlive its task by a frame when another thread removed it, so only a remove
+    // that succeeds is counted
+    private void completeTask(Task task) {
+        if (taskMap.removeTask(task.getDueDate(),task))
             userProgress.completeTask(task);
-            taskMap.removeTask(task.getDueDate(),task);
-            mainLayout.setCenter(taskListContainer);
-            loadTasksForThreeDays();
-        }
-    });
-         
-        Label nameLabel = new Label(task.getName());
-        nameLabel.setFont(Font.font(16));
-        Label descriptionLabel = new Label(task.getDescription());
-        Label dueDateLabel = new Label("Due: " + task.getDueDate().toString());
-        VBox taskDetails = new VBox(nameLabel, descriptionLabel, dueDateLabel);
-    
-        HBox tagBox = new HBox(20);
-        tagBox.setPadding(new Insets(10));   
-        tagBox.setAlignment(Pos.CENTER_RIGHT);   
-        if (task.getTags()!=null){
-        for (Tag tag : task.getTags()) {   
-            Circle tagCircle = new Circle(5);   
-            tagCircle.setFill(tag.getColor());   
-            
-            Label tagName = new Label(tag.getName());   
-        
-            HBox singleTag = new HBox(5, tagCircle, tagName);   
-            tagBox.getChildren().add(singleTag);   
-        }}
+    }
 
-        Button deleteButton = new Button("Delete");
-        deleteButton.setOnAction(e -> {
+    private void deleteTask(Task task) {
+        if (taskMap.removeTask(task.getDueDate(),task))
             userProgress.deleteTask(task);
-            taskMap.removeTask(task.getDueDate(),task);
-            mainLayout.setCenter(taskListContainer);
-            loadTasksForThreeDays();
-        });
-    
-        HBox actionButtons = new HBox(20, deleteButton);   
-        actionButtons.setAlignment(Pos.CENTER_RIGHT);   
-    
-         
-        HBox.setHgrow(taskDetails, Priority.ALWAYS);   
-        
-
-        taskBox.getChildren().addAll(pri, check, taskDetails, tagBox, actionButtons);   
-        
-        taskListContainer.getChildren().add(taskBox);   
     }
 
     private void openUserDetails()
@@ -434,7 +751,9 @@ public class ToDoList extends Application {
         compLabel.setFont(Font.font(16));
         Label pendLabel = new Label(String.valueOf("Total tasks pending: " + userProgress.getPending()));
         pendLabel.setFont(Font.font(16));
-        VBox userLayout = new VBox(20,streakLabel,progressLabel,prog,compLabel,pendLabel);
+        Label weekLabel = new Label("Completed this week: " + userProgress.completedInWeek(today) + ", this month: " + userProgress.completedInMonth(YearMonth.from(today)));
+        weekLabel.setFont(Font.font(16));
+        VBox userLayout = new VBox(20,streakLabel,progressLabel,prog,compLabel,pendLabel,weekLabel);
         userLayout.setPadding(new Insets(10));
 
          
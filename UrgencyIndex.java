@@ -0,0 +1,175 @@
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+
+/*
+ * Finds the most urgent tasks of a TaskMap: overdue tasks first, then by priority, then by due
+ * date and time.
+ *
+ * TaskMap's day buckets are kept in Task.BY_PRIORITY order, so the tasks of one priority are a
+ * run inside each bucket. The index only records, per priority, the days whose bucket has such
+ * a run, in a skip list updated whenever TaskMap publishes a bucket or indexes a day it still
+ * holds as raw records. Buckets are read back through TaskMap, so only the days visited are
+ * decoded. Overdue is a question of the day asked about, so it is not stored: next(today, k)
+ * walks the days before today priority by priority, then the days from today on, reading the
+ * runs out of the buckets, and stops after k tasks. The cost follows k and the days visited, not the size of the backlog, and the index
+ * holds a few entries per day rather than one per task.
+ *
+ * Recurring tasks rank by their first pending occurrence, which is not their bucket's date, so
+ * they are ranked separately at query time and merged in, as occurrences.
+ */
+public class UrgencyIndex {
+    private Function<LocalDate, Collection<Task>> buckets;
+    // Indexed by Task.priorityRank: the days with a one-off task of that priority
+    private ArrayList<ConcurrentSkipListSet<LocalDate>> days = new ArrayList<>();
+
+    // Reads a day's tasks in Task.BY_PRIORITY order, or null when it has none
+    public UrgencyIndex(Function<LocalDate, Collection<Task>> buckets) {
+        this.buckets = buckets;
+        for (int i=0;i<=Task.Priority.values().length;i++)
+            days.add(new ConcurrentSkipListSet<>());
+    }
+
+    // Called with the bucket just published for the date, or null when the day was emptied.
+    // Changes to one date must be serialized, as TaskMap does under the date's stripe
+    public void update(LocalDate date, Map<Long, Task> bucket) {
+        boolean[] present = new boolean[days.size()];
+        if (bucket != null)
+            for (Task t : bucket.values())
+                if (t.getRecurrence() == null)
+                    present[t.priorityRank()] = true;
+        mark(date, present);
+    }
+
+    // Records which priorities have a one-off task on the date, by Task.priorityRank
+    public void mark(LocalDate date, boolean[] present) {
+        for (int r=0;r<present.length;r++) {
+            if (present[r])
+                days.get(r).add(date);
+            else
+                days.get(r).remove(date);
+        }
+    }
+
+    // Up to limit tasks: those due before today by priority and date, then the rest the same way
+    public ArrayList<Task> next(LocalDate today, int limit, Collection<Task> series) {
+        ArrayList<Task> list = new ArrayList<>();
+        for (int r=0; r<days.size() && list.size()<limit; r++)
+            take(days.get(r).headSet(today), r, list, limit);
+        for (int r=0; r<days.size() && list.size()<limit; r++)
+            take(days.get(r).tailSet(today), r, list, limit);
+        if (series.isEmpty())
+            return list;
+
+        for (Task t : series) {
+            LocalDate first = t.getRecurrence().next(t.getDueDate(), t.getDueDate());
+            if (first != null)
+                list.add(t.occurrence(first));
+        }
+        list.sort(Comparator.<Task>comparingInt(t -> t.getDueDate().isBefore(today) ? 0 : 1)
+                .thenComparingInt(Task::priorityRank).thenComparing(Task::getDueDate).thenComparing(Task.BY_PRIORITY));
+        return (list.size() > limit) ? new ArrayList<>(list.subList(0, limit)) : list;
+    }
+
+    // Adds the tasks of the given priority from each day in turn until the list is full
+    private void take(Set<LocalDate> dates, int rank, ArrayList<Task> list, int limit) {
+        for (LocalDate d : dates) {
+            Collection<Task> bucket = buckets.apply(d);
+            if (bucket == null)
+                continue;
+            for (Task t : bucket) {
+                if (t.priorityRank() > rank || list.size() >= limit)
+                    break;
+                if (t.priorityRank() == rank && t.getRecurrence() == null)
+                    list.add(t);
+            }
+            if (list.size() >= limit)
+                return;
+        }
+    }
+
+    /*
+     * Fills a temporary TaskMap, then checks nextUp and the order of every bucket against a
+     * full sort, before and after a round of removes and adds, and times both:
+     * java UrgencyIndex [tasks]
+     */
+    public static void main(String[] args) throws IOException {
+        int count = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+        int limit = 20;
+        LocalDate today = LocalDate.of(2030, 6, 1);
+        Random random = new Random(42);
+        File dir = TempDir.create("urgency");
+        try {
+            TaskMap taskMap = new TaskMap(dir.getPath(), true);
+            ArrayList<Task> tasks = new ArrayList<>();
+            for (int i=0;i<count;i++)
+                tasks.add(randomTask(random, today, i));
+            taskMap.addAll(tasks);
+
+            boolean ok = check(taskMap, today, limit);
+            for (int i=0;i<count/100;i++) {
+                Task t = tasks.get(random.nextInt(tasks.size()));
+                taskMap.removeTask(t.getDueDate(), t);
+                Task fresh = randomTask(random, today, count + i);
+                taskMap.addTask(fresh.getDueDate(), fresh);
+            }
+            ok &= check(taskMap, today, limit);
+
+            int rounds = 10000;
+            long start = System.nanoTime();
+            for (int i=0;i<rounds;i++)
+                taskMap.nextUp(today, limit);
+            long indexed = (System.nanoTime() - start) / rounds;
+            start = System.nanoTime();
+            bruteForce(taskMap, today, limit);
+            long sorted = System.nanoTime() - start;
+            System.out.println("nextUp(" + limit + ") over " + taskMap.size() + " tasks: " + indexed / 1000 + " us, full sort: "
+                    + sorted / 1000000 + " ms");
+            System.out.println(ok ? "All checks passed" : "Checks FAILED");
+            if (!ok)
+                System.exit(1);
+        }
+        finally
+        {
+            TempDir.delete(dir);
+        }
+    }
+
+    private static Task randomTask(Random random, LocalDate today, int i) {
+        Task.Priority[] priorities = Task.Priority.values();
+        int p = random.nextInt(priorities.length + 1);
+        Task t = new Task("Task " + i, null, today.plusDays(random.nextInt(730) - 365),
+                (p == priorities.length) ? null : priorities[p], null);
+        if (random.nextBoolean())
+            t.setDueTime(LocalTime.of(random.nextInt(24), random.nextInt(60)));
+        return t;
+    }
+
+    private static ArrayList<Task> bruteForce(TaskMap taskMap, LocalDate today, int limit) {
+        ArrayList<Task> all = taskMap.getTasks(LocalDate.MIN, LocalDate.MAX);
+        all.sort(Comparator.<Task>comparingInt(t -> t.getDueDate().isBefore(today) ? 0 : 1)
+                .thenComparingInt(Task::priorityRank).thenComparing(Task::getDueDate)
+                .thenComparingInt(Task::dueMinute).thenComparingLong(Task::getId));
+        return new ArrayList<>(all.subList(0, Math.min(limit, all.size())));
+    }
+
+    private static boolean check(TaskMap taskMap, LocalDate today, int limit) {
+        boolean ok = taskMap.nextUp(today, limit).equals(bruteForce(taskMap, today, limit));
+        for (LocalDate d = taskMap.nextNonEmptyDay(LocalDate.MIN); d != null; d = taskMap.nextNonEmptyDay(d)) {
+            Collection<Task> bucket = taskMap.getTasks(d);
+            ArrayList<Task> sorted = new ArrayList<>(bucket);
+            sorted.sort(Task.BY_PRIORITY);
+            ok &= sorted.equals(new ArrayList<>(bucket));
+        }
+        return ok;
+    }
+}
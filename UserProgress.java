@@ -1,110 +1,252 @@
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
 import java.util.HashSet;
 
-public class UserProgress {
-    private int completed;
-    private int pending;
-    private int totalToday;
-    private int completedToday;
-    private int streak;
-    private LocalDate lastCompletionDate;
-    private static final String USER_FILE = "data/user.csv";
-
-    public UserProgress() {
-        loadProgressfromCSV();
-        updateStreak();
+/*
+ * Progress derived from an event log instead of hand-maintained counters.
+ *
+ * Every creation, completion and deletion is an event. Events go to a journal first and are
+ * moved into the log by save or by the autosave service, which append them to it and sync, so
+ * a save costs the events since the last one. The log is only rewritten, atomically, to repair
+ * it after a crash. On start both files are replayed into per-day rollups, which answer
+ * totals and week or month ranges in O(log n). The streak is kept up to date as completions
+ * arrive, and everything about pending tasks is read from the TaskMap, so the two never disagree.
+ *
+ * Event records: C;<completed on>;<due>;<id>, A;<added on>;<due>;<id>, D;<deleted on>;<due>;<id>,
+ * and L;<count> for completions carried over from the old counter file.
+ *
+ * The public methods are synchronized, so events may be recorded from any thread.
+ */
+public class UserProgress implements Saveable {
+    private TaskMap taskMap;
+    private Journal journal;
+    private Journal log;
+    private DayCounts completedOn = new DayCounts();
+    private DayCounts completedByDue = new DayCounts();
+    private DayCounts created = new DayCounts();
+    private long carriedOver;
+    private LocalDate streakEnd;
+    private int streakLength;
+    private String userFile;
+    private String logFile;
+
+    public UserProgress(TaskMap taskMap) {
+        this(taskMap, "data");
     }
 
-    // Load progress from CSV
-    public void loadProgressfromCSV() {
-        try {
-            BufferedReader br = new BufferedReader(new FileReader(USER_FILE));
+    // Keeps progress.log and user.journal in the given directory
+    public UserProgress(TaskMap taskMap, String dataDir) {
+        this.taskMap = taskMap;
+        userFile = dataDir + "/user.csv";
+        logFile = dataDir + "/progress.log";
+        journal = new Journal(dataDir + "/user.journal");
+        log = new Journal(logFile);
+        if (!new File(logFile).exists())
+            importCounters();
+        ArrayList<String> logged = log.readRecords();
+        // A crash in the middle of an append leaves part of a record, which is still in the journal
+        boolean torn = torn(logFile);
+        if (torn && !logged.isEmpty())
+            logged.remove(logged.size() - 1);
+        replay(logged);
+
+        // A crash between appending to the log and dropping the rotated journal leaves events in both
+        HashSet<String> seen = new HashSet<>(logged);
+        ArrayList<String> journaled = journal.readRecords();
+        ArrayList<String> unsaved = new ArrayList<>();
+        for (String record : journaled)
+            if (!seen.contains(record))
+                unsaved.add(record);
+        replay(unsaved);
+        if (torn || unsaved.size() < journaled.size())
+            repair(logged, unsaved);
+    }
 
-            completed = Integer.parseInt(br.readLine());
-            pending = Integer.parseInt(br.readLine());
-            totalToday = Integer.parseInt(br.readLine());
-            completedToday = Integer.parseInt(br.readLine());
-            streak = Integer.parseInt(br.readLine());
+    // Whether the file ends inside a record
+    private static boolean torn(String file) {
+        try (RandomAccessFile f = new RandomAccessFile(file, "r")) {
+            if (f.length() == 0)
+                return false;
+            f.seek(f.length() - 1);
+            return f.read() != '\n';
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
 
-            String lastDate = br.readLine().trim();
-            lastCompletionDate = "null".equals(lastDate) ? null : LocalDate.parse(lastDate);
-            br.close();
+    // Rewrite the log with every event once and empty the journal, so the next append starts clean
+    private void repair(ArrayList<String> logged, ArrayList<String> unsaved) {
+        ArrayList<String> records = new ArrayList<>(logged);
+        records.addAll(unsaved);
+        AtomicFile target = new AtomicFile(logFile);
+        try {
+            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(target.startWrite(), StandardCharsets.UTF_8));
+            try {
+                for (String record : records) {
+                    bw.write(record);
+                    bw.newLine();
+                }
+                bw.flush();
+                target.finishWrite();
+            } catch (IOException e) {
+                target.failWrite();
+                throw e;
+            }
+            journal.clear();
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
-            System.exit(1);
         }
     }
 
-    public void deleteTask(Task t)
-    {
-        pending--;
-        if (t.getDueDate().equals(LocalDate.now()))
-            totalToday--;
+    // Start the log from the completed count of the old counter file; the other counters are derived now
+    private void importCounters() {
+        long completed = 0;
+        if (new File(userFile).exists()) {
+            try {
+                BufferedReader br = new BufferedReader(new FileReader(userFile));
+                String line = br.readLine();
+                br.close();
+                if (line != null)
+                    completed = Long.parseLong(line.trim());
+            } catch (IOException | NumberFormatException e) {
+                System.out.println("Error: " + e.getMessage());
+            }
+        }
+        ArrayList<String> records = new ArrayList<>();
+        records.add("L;" + completed);
+        log.appendAll(records);
+        log.close();
+    }
+
+    private void replay(ArrayList<String> records) {
+        for (String record : records) {
+            String[] parts = record.split(";");
+            if (parts[0].equals("L") && parts.length == 2) {
+                carriedOver += Long.parseLong(parts[1]);
+                continue;
+            }
+            // Records of the old counter journal have no dates and are skipped
+            if (parts.length != 4)
+                continue;
+            apply(parts[0].charAt(0), LocalDate.parse(parts[1]), LocalDate.parse(parts[2]));
+        }
     }
-    // Complete a task
-    public void completeTask(Task t) {
-        completed++;
-        pending--;
-        if (t.getDueDate().equals(LocalDate.now()))
-            completedToday++;
-        lastCompletionDate = LocalDate.now();
+
+    private void apply(char type, LocalDate day, LocalDate due) {
+        if (type == 'C') {
+            boolean firstOfDay = completedOn.get(day) == 0;
+            completedOn.add(day, 1);
+            completedByDue.add(due, 1);
+            if (firstOfDay)
+                extendStreak(day);
+        }
+        else if (type == 'A')
+            created.add(day, 1);
     }
 
-    // Update the streak
-    public void updateStreak() {
-        LocalDate today = LocalDate.now();
-        if (lastCompletionDate == null) {
-            streak = 0;
-        } else if (today.minusDays(1).equals(lastCompletionDate) || lastCompletionDate.equals(today)) {
-            streak++;
+    // A day gets its first completion: continue, restart or, for an earlier day, recount the streak
+    private void extendStreak(LocalDate day) {
+        if (streakEnd == null || day.isAfter(streakEnd.plusDays(1))) {
+            streakEnd = day;
+            streakLength = 1;
+        } else if (day.equals(streakEnd.plusDays(1))) {
+            streakEnd = day;
+            streakLength++;
         } else {
-            streak = 0;
+            streakLength = 0;
+            for (LocalDate d = streakEnd; completedOn.get(d) > 0; d = d.minusDays(1))
+                streakLength++;
         }
     }
 
-    // Add a pending task
-    public void addPending(Task t) {
-        pending++;
-        if (t.getDueDate().equals(LocalDate.now()))
-            totalToday++;
+    private void record(char type, Task t) {
+        LocalDate today = LocalDate.now();
+        apply(type, today, t.getDueDate());
+        journal.append(type + ";" + today + ";" + t.getDueDate() + ";" + t.getId());
     }
 
-    // Getters for progress data
-    public int getCompleted() {
-        return completed;
+    public synchronized void deleteTask(Task t) {
+        record('D', t);
     }
 
-    public int getCompletedToday() {
-        return completedToday;
+    public synchronized void completeTask(Task t) {
+        record('C', t);
     }
 
-    public int getTotalToday() {
-        return totalToday;
+    public synchronized void addPending(Task t) {
+        record('A', t);
     }
 
-    public int getPending() {
-        return pending;
+    public synchronized long getCompleted() {
+        return carriedOver + completedOn.total();
     }
 
-    public int getStreak() {
-        return streak;
+    // Tasks due today that were completed, whenever that happened
+    public synchronized int getCompletedToday() {
+        return completedByDue.get(LocalDate.now());
     }
 
-    // Save progress to CSV
-    public void saveProgressToCSV() {
-        try {
-            BufferedWriter bw = new BufferedWriter(new FileWriter(USER_FILE));
+    public synchronized int getTotalToday() {
+        return getCompletedToday() + taskMap.getOccurrences(LocalDate.now()).size();
+    }
+
+    public synchronized int getPending() {
+        return taskMap.size();
+    }
+
+    // Consecutive days with a completion, ending today or yesterday
+    public synchronized int getStreak() {
+        LocalDate today = LocalDate.now();
+        if (streakEnd == null || streakEnd.isBefore(today.minusDays(1)))
+            return 0;
+        return streakLength;
+    }
+
+    // Completions made on days in [from, to]
+    public synchronized long completedBetween(LocalDate from, LocalDate to) {
+        return completedOn.between(from, to);
+    }
 
-            bw.write(completed + "\n" + pending + "\n" + totalToday + "\n" + completedToday + "\n" + streak);
-            bw.newLine();
+    // Monday to Sunday around the given day
+    public synchronized long completedInWeek(LocalDate day) {
+        LocalDate monday = day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        return completedOn.between(monday, monday.plusDays(6));
+    }
+
+    public synchronized long completedInMonth(YearMonth month) {
+        return completedOn.between(month.atDay(1), month.atEndOfMonth());
+    }
+
+    public synchronized long createdBetween(LocalDate from, LocalDate to) {
+        return created.between(from, to);
+    }
 
-            // Write last completion date, handle null
-            bw.write(lastCompletionDate == null ? "null" : lastCompletionDate.toString());
-            bw.close();
+    // Move the journal into the log
+    public synchronized void save() {
+        Saveable.Write write = snapshot();
+        try {
+            if (write != null)
+                write.write();
         } catch (IOException e) {
             System.out.println("Error: " + e.getMessage());
-            System.exit(1);
         }
     }
+
+    // The journal is rotated here; the write appends it to the log and syncs before dropping it
+    public synchronized Saveable.Write snapshot() {
+        if (journal.size() == 0)
+            return null;
+        journal.rotate();
+        return () -> {
+            log.appendAndSync(journal.readRotated());
+            journal.dropRotated();
+        };
+    }
 }
@@ -0,0 +1,186 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.time.LocalDate;
+
+/*
+ * The application classes live in the unnamed package, which a named package cannot import,
+ * and JMH refuses benchmarks in the unnamed package. This class reaches them through constant
+ * method handles instead; invokeExact on a static final handle is inlined by the JIT, so the
+ * indirection does not show up in the measurements.
+ */
+final class App {
+    private static final MethodHandle TASK_FROM_CSV;
+    private static final MethodHandle TASK_DUE_DATE;
+    private static final MethodHandle TASK_MAP_NEW;
+    private static final MethodHandle TASK_MAP_NEW_EMPTY;
+    private static final MethodHandle TASK_MAP_NEW_BACKEND;
+    private static final MethodHandle TASK_MAP_ADD;
+    private static final MethodHandle TASK_MAP_REMOVE;
+    private static final MethodHandle TASK_MAP_SAVE;
+    private static final MethodHandle TASK_MAP_SAVE_CSV;
+    private static final MethodHandle TASK_MAP_LOAD_CSV;
+    private static final MethodHandle TASK_STORE_IMPORT;
+    private static final MethodHandle TAG_MANAGER_INSTANCE;
+    private static final MethodHandle TAG_MANAGER_FIND;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            // Loaded without initializing, so Task does not read data/tags.csv before the dataset exists
+            Class<?> task = Class.forName("Task", false, App.class.getClassLoader());
+            Class<?> taskMap = Class.forName("TaskMap", false, App.class.getClassLoader());
+            Class<?> taskStore = Class.forName("TaskStore", false, App.class.getClassLoader());
+            Class<?> tagManager = Class.forName("TagManager", false, App.class.getClassLoader());
+            Class<?> tag = Class.forName("Tag", false, App.class.getClassLoader());
+
+            TASK_FROM_CSV = lookup.findStatic(task, "fromCSV", MethodType.methodType(task, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            TASK_DUE_DATE = lookup.findVirtual(task, "getDueDate", MethodType.methodType(LocalDate.class))
+                    .asType(MethodType.methodType(LocalDate.class, Object.class));
+            TASK_MAP_NEW = lookup.findConstructor(taskMap, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            TASK_MAP_NEW_EMPTY = lookup.findConstructor(taskMap, MethodType.methodType(void.class, boolean.class))
+                    .asType(MethodType.methodType(Object.class, boolean.class));
+            TASK_MAP_NEW_BACKEND = lookup.findConstructor(taskMap, MethodType.methodType(void.class, String.class, boolean.class, boolean.class))
+                    .asType(MethodType.methodType(Object.class, String.class, boolean.class, boolean.class));
+            TASK_MAP_ADD = lookup.findVirtual(taskMap, "addTask", MethodType.methodType(boolean.class, LocalDate.class, task))
+                    .asType(MethodType.methodType(void.class, Object.class, LocalDate.class, Object.class));
+            TASK_MAP_REMOVE = lookup.findVirtual(taskMap, "removeTask", MethodType.methodType(boolean.class, LocalDate.class, task))
+                    .asType(MethodType.methodType(void.class, Object.class, LocalDate.class, Object.class));
+            TASK_MAP_SAVE = lookup.findVirtual(taskMap, "saveTasks", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            TASK_MAP_SAVE_CSV = lookup.findVirtual(taskMap, "saveTasksToCSV", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            TASK_MAP_LOAD_CSV = lookup.findVirtual(taskMap, "loadTasksFromCSV", MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class));
+            TASK_STORE_IMPORT = lookup.findStatic(taskStore, "main", MethodType.methodType(void.class, String[].class));
+            TAG_MANAGER_INSTANCE = lookup.findStatic(tagManager, "getInstance", MethodType.methodType(tagManager))
+                    .asType(MethodType.methodType(Object.class));
+            TAG_MANAGER_FIND = lookup.findVirtual(tagManager, "find", MethodType.methodType(tag, String.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, String.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private App() {
+    }
+
+    static Object taskFromCSV(String line) {
+        try {
+            return (Object) TASK_FROM_CSV.invokeExact(line);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static LocalDate dueDate(Object task) {
+        try {
+            return (LocalDate) TASK_DUE_DATE.invokeExact(task);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Opens the store in data/, or imports data/tasks.csv when there is none
+    static Object newTaskMap() {
+        try {
+            return (Object) TASK_MAP_NEW.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // Reads nothing until loadTasksFromCSV is called
+    static Object newEmptyTaskMap() {
+        try {
+            return (Object) TASK_MAP_NEW_EMPTY.invokeExact(false);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    // An empty map over data/ with the object or the columnar backend
+    static Object newEmptyTaskMap(boolean columnar) {
+        try {
+            return (Object) TASK_MAP_NEW_BACKEND.invokeExact("data", false, columnar);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void addTask(Object taskMap, LocalDate date, Object task) {
+        try {
+            TASK_MAP_ADD.invokeExact(taskMap, date, task);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void removeTask(Object taskMap, LocalDate date, Object task) {
+        try {
+            TASK_MAP_REMOVE.invokeExact(taskMap, date, task);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void saveTasks(Object taskMap) {
+        try {
+            TASK_MAP_SAVE.invokeExact(taskMap);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void saveTasksToCSV(Object taskMap) {
+        try {
+            TASK_MAP_SAVE_CSV.invokeExact(taskMap);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void loadTasksFromCSV(Object taskMap, String file) {
+        try {
+            TASK_MAP_LOAD_CSV.invokeExact(taskMap, file);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static void importToStore(String csv, String bin) {
+        try {
+            TASK_STORE_IMPORT.invokeExact(new String[]{"import", csv, bin});
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object tagManager() {
+        try {
+            return (Object) TAG_MANAGER_INSTANCE.invokeExact();
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    static Object findTag(Object tagManager, String name) {
+        try {
+            return (Object) TAG_MANAGER_FIND.invokeExact(tagManager, name);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException)
+            return (RuntimeException) t;
+        if (t instanceof Error)
+            throw (Error) t;
+        return new RuntimeException(t);
+    }
+}
@@ -0,0 +1,37 @@
+package benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/*
+ * Runs the benchmarks with a fixed heap, fork count and the GC profiler, so numbers from
+ * different runs can be compared. Usual JMH command line options still apply and win over
+ * these defaults, e.g. "ParseBenchmark -p tagsPerTask=2".
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cli = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli)
+                .addProfiler(GCProfiler.class)
+                .shouldFailOnError(true);
+
+        if (cli.getIncludes().isEmpty())
+            options.include("benchmarks\\..*Benchmark");
+        if (!cli.getForkCount().hasValue())
+            options.forks(2);
+        if (!cli.getJvmArgs().hasValue())
+            options.jvmArgs("-Xms2g", "-Xmx2g", "-XX:+UseG1GC");
+        if (!cli.getResult().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+            options.result("jmh-result.json");
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,139 @@
+package benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/*
+ * Writes a synthetic data/ directory in the application's own formats. The same seed and
+ * parameters always produce byte-identical files, so runs on different days are comparable.
+ */
+public final class DatasetGenerator {
+    public static final long SEED = 42L;
+    public static final LocalDate START = LocalDate.of(2020, 1, 1);
+
+    // Written next to the generated files; a data/ directory without it is never touched
+    private static final String MARKER = ".benchmark-dataset";
+
+    private static final String[] PRIORITIES = {"HIGH", "MEDIUM", "LOW"};
+    private static final String[] WORDS = {"review", "call", "write", "plan", "buy", "fix", "read", "send",
+            "prepare", "clean", "book", "check", "update", "study", "pay", "meet"};
+
+    private final int taskCount;
+    private final int tagsPerTask;
+    private final int daySpread;
+    private final int tagCount;
+
+    public DatasetGenerator(int taskCount, int tagsPerTask, int daySpread) {
+        this.taskCount = taskCount;
+        this.tagsPerTask = tagsPerTask;
+        this.daySpread = daySpread;
+        this.tagCount = Math.max(8, tagsPerTask * 2);
+    }
+
+    public List<String> tagNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < tagCount; i++)
+            names.add("Tag" + i);
+        return names;
+    }
+
+    public List<String> taskLines() {
+        Random random = new Random(SEED);
+        List<String> lines = new ArrayList<>(taskCount);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < taskCount; i++) {
+            sb.setLength(0);
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ').append(WORDS[random.nextInt(WORDS.length)])
+                    .append(' ').append(i).append(';');
+            if (random.nextInt(4) == 0)
+                sb.append("null");
+            else
+                sb.append("Details for task ").append(i).append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+
+            LocalDate due = START.plusDays(random.nextInt(daySpread));
+            sb.append(';').append(due).append(';').append(PRIORITIES[random.nextInt(3)]).append(';');
+
+            if (tagsPerTask == 0) {
+                sb.append("null");
+            } else {
+                int first = random.nextInt(tagCount);
+                for (int t = 0; t < tagsPerTask; t++) {
+                    if (t > 0) sb.append(',');
+                    sb.append("Tag").append((first + t) % tagCount);
+                }
+            }
+            sb.append(';').append(due.minusDays(random.nextInt(30))).append(';').append(i + 1);
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    // Replace data/ under dir with tags.csv and tasks.csv; any binary store, partition or journal is removed
+    public void write(Path dir) throws IOException {
+        Path data = dir.resolve("data");
+        if (holdsOtherData(data))
+            throw new IllegalStateException(data.toAbsolutePath() + " holds real data; run the benchmarks from the benchmarks directory");
+        Files.createDirectories(data);
+        Files.write(data.resolve(MARKER), (taskCount + " " + tagsPerTask + " " + daySpread + "\n").getBytes(StandardCharsets.UTF_8));
+        Files.deleteIfExists(data.resolve("tasks.bin"));
+        Files.deleteIfExists(data.resolve("tasks.journal"));
+        Path partitions = data.resolve("tasks");
+        if (Files.isDirectory(partitions)) {
+            try (Stream<Path> files = Files.list(partitions)) {
+                for (Path p : (Iterable<Path>) files::iterator)
+                    Files.delete(p);
+            }
+            Files.delete(partitions);
+        }
+
+        try (BufferedWriter w = Files.newBufferedWriter(data.resolve("tags.csv"), StandardCharsets.UTF_8)) {
+            List<String> names = tagNames();
+            for (int i = 0; i < names.size(); i++) {
+                w.write(names.get(i) + ";0x" + String.format("%06x", (i * 0x3f5a7b) & 0xffffff) + "ff;" + i);
+                w.newLine();
+            }
+        }
+        try (BufferedWriter w = Files.newBufferedWriter(data.resolve("tasks.csv"), StandardCharsets.UTF_8)) {
+            for (String line : taskLines()) {
+                w.write(line);
+                w.newLine();
+            }
+        }
+    }
+
+    private static boolean holdsOtherData(Path data) throws IOException {
+        if (!Files.isDirectory(data) || Files.exists(data.resolve(MARKER)))
+            return false;
+        try (Stream<Path> files = Files.list(data)) {
+            return files.findAny().isPresent();
+        }
+    }
+
+    // Write the dataset into the working directory, where the application resolves data/
+    public static void prepare(int taskCount, int tagsPerTask, int daySpread) {
+        try {
+            new DatasetGenerator(taskCount, tagsPerTask, daySpread).write(Paths.get(""));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Usage: DatasetGenerator <taskCount> <tagsPerTask> <daySpread>, writes ./data
+    public static void main(String[] args) throws IOException {
+        int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int tags = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int spread = args.length > 2 ? Integer.parseInt(args[2]) : 365 * 3;
+        new DatasetGenerator(tasks, tags, spread).write(Paths.get(""));
+        System.out.println("Wrote " + tasks + " tasks with " + tags + " tags each over " + spread + " days to ./data");
+    }
+}
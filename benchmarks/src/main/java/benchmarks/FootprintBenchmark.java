@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Heap a TaskMap keeps for the whole dataset, with tasks as objects and with the columnar
+ * backend. Each invocation loads data/tasks.csv into a fresh map, timed as the score; the heap
+ * still in use after a full GC, against the heap before the load, is reported as the
+ * bytesPerTask and retainedMB counters.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class FootprintBenchmark {
+    @Param({"1000000"})
+    public int taskCount;
+
+    @Param({"2"})
+    public int tagsPerTask;
+
+    @Param({"1095"})
+    public int daySpread;
+
+    @Param({"false", "true"})
+    public boolean columnar;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerTask;
+        public long retainedMB;
+    }
+
+    private Object taskMap;
+    private long before;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DatasetGenerator.prepare(taskCount, tagsPerTask, daySpread);
+        // Loads the tags before the first baseline is taken
+        App.tagManager();
+    }
+
+    @Setup(Level.Invocation)
+    public void baseline() {
+        taskMap = null;
+        before = usedAfterGc();
+    }
+
+    @Benchmark
+    public void load() {
+        taskMap = App.newEmptyTaskMap(columnar);
+        App.loadTasksFromCSV(taskMap, "data/tasks.csv");
+    }
+
+    @TearDown(Level.Invocation)
+    public void measure(Footprint footprint) {
+        long retained = usedAfterGc() - before;
+        footprint.bytesPerTask = retained / taskCount;
+        footprint.retainedMB = retained >> 20;
+        taskMap = null;
+    }
+
+    private static long usedAfterGc() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,56 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Task.fromCSV and Task.toString, one line or task per invocation, cycling over the dataset
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ParseBenchmark {
+    @Param({"0", "2", "8"})
+    public int tagsPerTask;
+
+    private String[] lines;
+    private Object[] tasks;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // The tags have to be on disk before Task loads the TagManager
+        DatasetGenerator.prepare(4096, tagsPerTask, 365);
+        List<String> generated = new DatasetGenerator(4096, tagsPerTask, 365).taskLines();
+        lines = generated.toArray(new String[0]);
+        tasks = new Object[lines.length];
+        for (int i = 0; i < lines.length; i++)
+            tasks[i] = App.taskFromCSV(lines[i]);
+    }
+
+    @Benchmark
+    public Object fromCSV() {
+        String line = lines[next];
+        next = (next + 1) & (lines.length - 1);
+        return App.taskFromCSV(line);
+    }
+
+    @Benchmark
+    public String toCSV() {
+        Object task = tasks[next];
+        next = (next + 1) & (tasks.length - 1);
+        return task.toString();
+    }
+}
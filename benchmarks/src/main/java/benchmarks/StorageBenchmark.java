@@ -0,0 +1,76 @@
+package benchmarks;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Loads and saves of data/tasks.csv and of the month partitions under data/tasks
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class StorageBenchmark {
+    @Param({"10000", "100000"})
+    public int taskCount;
+
+    @Param({"2"})
+    public int tagsPerTask;
+
+    @Param({"1095"})
+    public int daySpread;
+
+    private Object taskMap;
+    private Object changed;
+    private LocalDate changedDate;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DatasetGenerator.prepare(taskCount, tagsPerTask, daySpread);
+        App.importToStore("data/tasks.csv", "data/tasks.bin");
+        taskMap = App.newTaskMap();
+        // Splits the single file into the partitions loadBinary opens
+        App.saveTasks(taskMap);
+
+        String line = new DatasetGenerator(1, tagsPerTask, daySpread).taskLines().get(0);
+        changed = App.taskFromCSV(line.substring(0, line.lastIndexOf(';')));
+        changedDate = App.dueDate(changed);
+    }
+
+    @Benchmark
+    public Object loadTasksFromCSV() {
+        Object fresh = App.newEmptyTaskMap();
+        App.loadTasksFromCSV(fresh, "data/tasks.csv");
+        return fresh;
+    }
+
+    @Benchmark
+    public Object loadBinary() {
+        return App.newTaskMap();
+    }
+
+    // A save after one change, which rewrites the month it falls in and no other
+    @Benchmark
+    public void saveTasks() {
+        App.addTask(taskMap, changedDate, changed);
+        App.removeTask(taskMap, changedDate, changed);
+        App.saveTasks(taskMap);
+    }
+
+    // Rewrites data/tasks.csv with the same content it was generated with
+    @Benchmark
+    public void saveTasksToCSV() {
+        App.saveTasksToCSV(taskMap);
+    }
+}
@@ -0,0 +1,49 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// TagManager.find for a known tag in another case and for a name that is not registered
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TagBenchmark {
+    @Param({"8", "64"})
+    public int tagsPerTask;
+
+    private Object tagManager;
+    private String present;
+    private String missing;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DatasetGenerator.prepare(16, tagsPerTask, 30);
+        // The generator registers Tag0 .. Tag(2 * tagsPerTask - 1)
+        tagManager = App.tagManager();
+        present = "TAG" + (tagsPerTask - 1);
+        missing = "NoSuchTag";
+    }
+
+    @Benchmark
+    public Object findPresent() {
+        return App.findTag(tagManager, present);
+    }
+
+    @Benchmark
+    public Object findMissing() {
+        return App.findTag(tagManager, missing);
+    }
+}
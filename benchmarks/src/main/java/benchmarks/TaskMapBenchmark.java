@@ -0,0 +1,74 @@
+package benchmarks;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * TaskMap.addTask followed by removeTask of the same task, so the map keeps its size across
+ * iterations. Both calls append to the journal, and the cost includes the compactions it
+ * triggers, as it does in the application.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TaskMapBenchmark {
+    @Param({"10000", "100000"})
+    public int taskCount;
+
+    @Param({"2"})
+    public int tagsPerTask;
+
+    @Param({"365"})
+    public int daySpread;
+
+    private Object taskMap;
+    private Object[] tasks;
+    private LocalDate[] dates;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        DatasetGenerator.prepare(taskCount, tagsPerTask, daySpread);
+        taskMap = App.newTaskMap();
+
+        // New tasks spread over the same days as the dataset
+        DatasetGenerator extra = new DatasetGenerator(1024, tagsPerTask, daySpread);
+        tasks = new Object[1024];
+        dates = new LocalDate[1024];
+        int i = 0;
+        for (String line : extra.taskLines()) {
+            tasks[i] = App.taskFromCSV(line.substring(0, line.lastIndexOf(';')));
+            dates[i] = App.dueDate(tasks[i]);
+            i++;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        App.saveTasks(taskMap);
+    }
+
+    @Benchmark
+    public void addAndRemove() {
+        Object task = tasks[next];
+        LocalDate date = dates[next];
+        next = (next + 1) & (tasks.length - 1);
+        App.addTask(taskMap, date, task);
+        App.removeTask(taskMap, date, task);
+    }
+}